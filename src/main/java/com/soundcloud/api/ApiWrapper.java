@@ -2,6 +2,7 @@ package com.soundcloud.api;
 
 import org.apache.http.ConnectionReuseStrategy;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
@@ -14,6 +15,7 @@ import org.apache.http.client.RedirectHandler;
 import org.apache.http.client.RequestDirector;
 import org.apache.http.client.UserTokenHandler;
 import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
@@ -38,6 +40,7 @@ import org.apache.http.impl.client.DefaultRequestDirector;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
@@ -47,15 +50,25 @@ import org.apache.http.protocol.HttpProcessor;
 import org.apache.http.protocol.HttpRequestExecutor;
 import org.json.JSONException;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Interface with SoundCloud, using OAuth2.
@@ -84,11 +97,20 @@ public class ApiWrapper implements CloudAPI, Serializable {
     /** The current environment */
     public final Env env;
 
-    private Token mToken;
+    private volatile Token mToken;
     private final String mClientId, mClientSecret;
     private final URI mRedirectUri;
     transient private HttpClient httpClient;
     transient private TokenListener listener;
+    transient private TokenRefresher mRefresher;
+    transient private ScheduledExecutorService mRefreshExecutor;
+    transient private ScheduledFuture<?> mScheduledRefresh;
+    transient private long mRefreshMargin;
+    transient private ClientTokenCache mClientTokens;
+    transient private Header mAcceptHeader;
+    transient private volatile BandwidthLimiter mLimiter;
+    transient private volatile long mExpectContinueThreshold = -1;
+    transient private volatile int mExpectContinueTimeout = DEFAULT_EXPECT_CONTINUE_TIMEOUT;
 
     private String mDefaultContentType;
 
@@ -99,6 +121,23 @@ public class ApiWrapper implements CloudAPI, Serializable {
     public static final long KEEPALIVE_TIMEOUT = 20 * 1000;
     /* maximum number of connections allowed */
     public static final int MAX_TOTAL_CONNECTIONS = 10;
+    /** Default time before expiry to refresh tokens in the background, see {@link #setAutoRefresh} */
+    public static final long DEFAULT_REFRESH_MARGIN = 5 * 60 * 1000;
+    /** Default time to wait for <code>100 Continue</code>, see {@link #setExpectContinue(long, int)} */
+    public static final int DEFAULT_EXPECT_CONTINUE_TIMEOUT = 3 * 1000;
+    /** Client credentials tokens expiring within this time are not reused, see {@link #clientCredentials(String)} */
+    static final long CLIENT_CREDENTIALS_MARGIN = 60 * 1000;
+    /** Delay before a failed background refresh is retried */
+    static final long REFRESH_RETRY_DELAY = 30 * 1000;
+
+    /** Preferred authentication schemes, shared by all requests */
+    static final List<String> AUTH_SCHEME_PREF =
+            Collections.unmodifiableList(Arrays.asList(CloudAPI.OAUTH_SCHEME, "digest", "basic"));
+    static final Header INVALIDATED_AUTH_HEADER = new BasicHeader(AUTH.WWW_AUTH_RESP, Token.AUTH_PREFIX + "invalidated");
+
+    /** Identifies wrapper snapshots, see {@link #toFile(java.io.File)} ("SCaw") */
+    static final int SNAPSHOT_MAGIC = 0x53436177;
+    static final int SNAPSHOT_VERSION = 1;
 
     /** debug request details to stderr */
     public boolean debugRequests;
@@ -140,8 +179,7 @@ public class ApiWrapper implements CloudAPI, Serializable {
                 "username", username,
                 "password", password);
         if (scope != null) request.add("scope", scope);
-        mToken = requestToken(request);
-        return mToken;
+        return updateToken(requestToken(request));
     }
 
     @Override public Token authorizationCode(String code) throws IOException {
@@ -160,21 +198,41 @@ public class ApiWrapper implements CloudAPI, Serializable {
                 "code", code);
         if (scope != null) request.add("scope", scope);
 
-        mToken = requestToken(request);
-        return mToken;
+        return updateToken(requestToken(request));
     }
 
     @Override public Token clientCredentials() throws IOException {
         return clientCredentials(Token.SCOPE_SIGNUP);
     }
 
-    @Override public Token clientCredentials(String scope) throws IOException {
+    @Override public Token clientCredentials(final String scope) throws IOException {
+        return getClientTokens().get(scope, new Callable<Token>() {
+            @Override public Token call() throws IOException {
+                return requestClientCredentials(scope);
+            }
+        });
+    }
+
+    /**
+     * Removes a client credentials token from the cache, typically after a request made with it
+     * failed with {@link InvalidTokenException}. The next call to {@link #clientCredentials(String)}
+     * will request a new token.
+     *
+     * @param token the invalid token
+     * @return whether the token was cached
+     */
+    public boolean invalidateClientCredentials(Token token) {
+        return getClientTokens().invalidate(token);
+    }
+
+    private Token requestClientCredentials(String scope) throws IOException {
         final Request req = Request.to(Endpoints.TOKEN).with(
                 "grant_type", CLIENT_CREDENTIALS,
                 "client_id",  mClientId,
                 "client_secret", mClientSecret);
         if (scope != null) req.add("scope", scope);
-        final Token token = requestToken(req);
+        // app tokens are cached separately, a listener persisting the user token must not see them
+        final Token token = fetchToken(req);
         if (scope != null && !token.scoped(scope)) {
             throw new InvalidTokenException(-1, "Could not obtain requested scope '"+scope+"' (got: '" +
                     token.scope + "')");
@@ -183,23 +241,39 @@ public class ApiWrapper implements CloudAPI, Serializable {
     }
 
     @Override public Token refreshToken() throws IOException {
-        if (mToken == null || mToken.refresh == null) throw new IllegalStateException("no refresh token available");
-        mToken = requestToken(Request.to(Endpoints.TOKEN).with(
+        return updateToken(requestToken(refreshRequest(mToken)));
+    }
+
+    /**
+     * Refreshes the given token, without changing the current token of the wrapper.
+     * Used for tokens of other users, see {@link TokenStore}, so the {@link TokenListener}
+     * is not notified.
+     * @param token the token to refresh
+     * @return a valid token
+     * @throws IOException in case of network problems
+     * @throws com.soundcloud.api.CloudAPI.InvalidTokenException invalid token
+     * @throws IllegalStateException if no refresh token present
+     */
+    public Token refreshToken(Token token) throws IOException {
+        return fetchToken(refreshRequest(token));
+    }
+
+    private Request refreshRequest(Token token) {
+        if (token == null || token.refresh == null) throw new IllegalStateException("no refresh token available");
+        return Request.to(Endpoints.TOKEN).with(
                 "grant_type", REFRESH_TOKEN,
                 "client_id", mClientId,
                 "client_secret", mClientSecret,
-                "refresh_token", mToken.refresh));
-        return mToken;
+                "refresh_token", token.refresh);
     }
 
     @Override public Token exchangeOAuth1Token(String oauth1AccessToken) throws IOException {
         if (oauth1AccessToken == null) throw new IllegalArgumentException("need access token");
-        mToken = requestToken(Request.to(Endpoints.TOKEN).with(
+        return updateToken(requestToken(Request.to(Endpoints.TOKEN).with(
                 "grant_type", OAUTH1_TOKEN,
                 "client_id", mClientId,
                 "client_secret", mClientSecret,
-                "refresh_token", oauth1AccessToken));
-        return mToken;
+                "refresh_token", oauth1AccessToken)));
     }
 
     @Override public Token invalidateToken() {
@@ -207,8 +281,7 @@ public class ApiWrapper implements CloudAPI, Serializable {
             Token alternative = listener == null ? null : listener.onTokenInvalid(mToken);
             mToken.invalidate();
             if (alternative != null) {
-                mToken = alternative;
-                return mToken;
+                return updateToken(alternative);
             } else {
                 return null;
             }
@@ -238,20 +311,29 @@ public class ApiWrapper implements CloudAPI, Serializable {
     }
 
     /**
-     * Request an OAuth2 token from SoundCloud
+     * Request an OAuth2 token from SoundCloud, and report it to the {@link TokenListener}
      * @param  request the token request
      * @return the token
      * @throws java.io.IOException network error
      * @throws com.soundcloud.api.CloudAPI.InvalidTokenException unauthorized
      */
     protected Token requestToken(Request request) throws IOException {
+        final Token token = fetchToken(request);
+        if (listener != null) listener.onTokenRefreshed(token);
+        return token;
+    }
+
+    /**
+     * Request an OAuth2 token which is not the wrapper's own (client credentials, tokens of
+     * other users), without reporting it to the {@link TokenListener}
+     * @see #requestToken(Request)
+     */
+    protected Token fetchToken(Request request) throws IOException {
         HttpResponse response = getHttpClient().execute(env.sslResourceHost, request.buildRequest(HttpPost.class));
         final int status = response.getStatusLine().getStatusCode();
 
         if (status == HttpStatus.SC_OK) {
-            final Token token = new Token(Http.getJSON(response));
-            if (listener != null) listener.onTokenRefreshed(token);
-            return token;
+            return new Token(Http.getJSON(response));
         } else {
             String error = "";
             try {
@@ -282,6 +364,7 @@ public class ApiWrapper implements CloudAPI, Serializable {
         HttpConnectionParams.setStaleCheckingEnabled(params, false);
 
         // fix contributed by Bjorn Roche XXX check if still needed
+        // large uploads can opt in per request, see setExpectContinue
         params.setBooleanParameter("http.protocol.expect-continue", false);
         params.setParameter(ConnManagerPNames.MAX_CONNECTIONS_PER_ROUTE, new ConnPerRoute() {
             @Override
@@ -350,13 +433,12 @@ public class ApiWrapper implements CloudAPI, Serializable {
                         new AuthScope(AuthScope.ANY_HOST, AuthScope.ANY_PORT, CloudAPI.REALM, OAUTH_SCHEME),
                         OAuth2Scheme.EmptyCredentials.INSTANCE);
 
-                    getAuthSchemes().register(CloudAPI.OAUTH_SCHEME, new OAuth2Scheme.Factory(ApiWrapper.this));
+                    getAuthSchemes().register(CloudAPI.OAUTH_SCHEME, new OAuth2Scheme.Factory(getTokenRefresher()));
                 }
 
                 @Override protected HttpContext createHttpContext() {
                     HttpContext ctxt = super.createHttpContext();
-                    ctxt.setAttribute(ClientContext.AUTH_SCHEME_PREF,
-                            Arrays.asList(CloudAPI.OAUTH_SCHEME, "digest", "basic"));
+                    ctxt.setAttribute(ClientContext.AUTH_SCHEME_PREF, AUTH_SCHEME_PREF);
                     return ctxt;
                 }
 
@@ -427,7 +509,92 @@ public class ApiWrapper implements CloudAPI, Serializable {
     }
 
     @Override public void setToken(Token newToken) {
-        mToken = newToken;
+        updateToken(newToken);
+    }
+
+    /**
+     * Refreshes expiring tokens in the background, some time before they expire, so that
+     * requests rarely fail with an invalid token. Refreshed tokens are reported to the
+     * {@link TokenListener} as usual.
+     *
+     * @param executor the executor to run the refreshes on, or null to disable background refreshes
+     * @param margin   how long before expiry a token should be refreshed, in milliseconds
+     * @see #DEFAULT_REFRESH_MARGIN
+     */
+    public synchronized void setAutoRefresh(ScheduledExecutorService executor, long margin) {
+        mRefreshExecutor = executor;
+        mRefreshMargin = margin;
+        scheduleRefresh(mToken);
+    }
+
+    /** Sets the token and schedules its refresh atomically, so the schedule follows the current token */
+    private synchronized Token updateToken(Token token) {
+        mToken = token;
+        scheduleRefresh(token);
+        return token;
+    }
+
+    private synchronized void scheduleRefresh(Token token) {
+        scheduleRefresh(token, token == null ? 0 : token.expiresIn - mRefreshMargin - System.currentTimeMillis());
+    }
+
+    private synchronized void scheduleRefresh(final Token token, long delay) {
+        if (mScheduledRefresh != null) {
+            mScheduledRefresh.cancel(false);
+            mScheduledRefresh = null;
+        }
+        if (mRefreshExecutor != null && token != null && token.refresh != null && token.expiresIn != 0) {
+            mScheduledRefresh = mRefreshExecutor.schedule(new Runnable() {
+                @Override public void run() {
+                    refreshAhead(token);
+                }
+            }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void refreshAhead(Token token) {
+        final String access = token.access;
+        // token replaced or invalidated in the meantime, its replacement has been scheduled
+        if (mToken != token || access == null) return;
+        try {
+            getTokenRefresher().refreshAhead(access);
+        } catch (InvalidTokenException e) {
+            // refresh token was rejected, the next request will find out
+        } catch (IOException e) {
+            synchronized (this) {
+                if (mToken == token && token.expiresIn > System.currentTimeMillis()) {
+                    scheduleRefresh(token, REFRESH_RETRY_DELAY);
+                }
+            }
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    /**
+     * Sets the store holding the tokens of the users this wrapper acts for. Requests made
+     * {@link Request#onBehalfOf(String) on behalf of} a user use the token from the store,
+     * and failed tokens are refreshed and put back into it.
+     *
+     * @param store the token store, or null
+     */
+    public void setTokenStore(TokenStore store) {
+        getTokenRefresher().setTokenStore(store);
+    }
+
+    /** @return the token store, or null if not set */
+    public TokenStore getTokenStore() {
+        return getTokenRefresher().getTokenStore();
+    }
+
+    private synchronized ClientTokenCache getClientTokens() {
+        if (mClientTokens == null) mClientTokens = new ClientTokenCache(CLIENT_CREDENTIALS_MARGIN);
+        return mClientTokens;
+    }
+
+    /** @return the object coordinating token refreshes of this wrapper */
+    synchronized TokenRefresher getTokenRefresher() {
+        if (mRefresher == null) mRefresher = new TokenRefresher(this);
+        return mRefresher;
     }
 
     @Override
@@ -447,18 +614,143 @@ public class ApiWrapper implements CloudAPI, Serializable {
 
     protected HttpResponse execute(Request req, Class<? extends HttpRequestBase> reqType) throws IOException {
         if (debugRequests) System.err.println(reqType.getSimpleName()+" "+req);
-        return execute(req.buildRequest(reqType));
+        final HttpRequestBase request = req.buildRequest(reqType);
+        if (request instanceof HttpEntityEnclosingRequestBase) {
+            prepareBody(req, (HttpEntityEnclosingRequestBase) request);
+        }
+        final String user = req.getUser();
+        if (user != null && !request.containsHeader(AUTH.WWW_AUTH_RESP)) {
+            request.addHeader(createOAuthHeader(getStoredToken(user)));
+        }
+        return execute(request);
+    }
+
+    /**
+     * Limits the rate at which request bodies are sent, for all requests of this wrapper.
+     * @param limiter the limiter, or null for no limit
+     * @see Request#setBandwidthLimiter(BandwidthLimiter)
+     */
+    public void setBandwidthLimiter(BandwidthLimiter limiter) {
+        mLimiter = limiter;
+    }
+
+    public BandwidthLimiter getBandwidthLimiter() {
+        return mLimiter;
+    }
+
+    private void prepareBody(Request req, HttpEntityEnclosingRequestBase request) {
+        final HttpEntity entity = request.getEntity();
+        if (entity == null) return;
+
+        final long threshold = mExpectContinueThreshold;
+        if (threshold >= 0 && req.isMultipart() &&
+            (entity.getContentLength() < 0 || entity.getContentLength() >= threshold)) {
+            HttpProtocolParams.setUseExpectContinue(request.getParams(), true);
+            request.getParams().setIntParameter(CoreProtocolPNames.WAIT_FOR_CONTINUE, mExpectContinueTimeout);
+        }
+        final BandwidthLimiter limiter = mLimiter;
+        if (limiter != null) {
+            request.setEntity(new ThrottledEntity(entity, limiter));
+        }
     }
 
     /**
-     * serialize the wrapper to a File
+     * Sends multipart uploads above the given size with <code>Expect: 100-continue</code>, so
+     * the server can reject them (e.g. with 401 or 422) before the body is sent. Disabled by
+     * default, since some proxies don't handle it.
+     * @param threshold minimum body size in bytes, or -1 to disable
+     * @param timeout   how long to wait for the server to accept the request before the body is
+     *                  sent anyway, in milliseconds
+     */
+    public void setExpectContinue(long threshold, int timeout) {
+        if (timeout < 0) throw new IllegalArgumentException("invalid timeout: " + timeout);
+        mExpectContinueTimeout = timeout;
+        mExpectContinueThreshold = threshold < 0 ? -1 : threshold;
+    }
+
+    private Token getStoredToken(String user) throws IOException {
+        final TokenStore store = getTokenStore();
+        if (store == null) throw new IllegalStateException("no token store set");
+        return TokenRefresher.stored(store, user);
+    }
+
+    /**
+     * Saves the wrapper configuration and the current token to a file. The snapshot is written to
+     * a temporary file first and then renamed, so the target is never left half written.
      * @param f target
      * @throws java.io.IOException IO problems
+     * @see #fromFile(java.io.File)
      */
     public void toFile(File f) throws IOException {
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f));
-        oos.writeObject(this);
-        oos.close();
+        // createTempFile needs a prefix of at least 3 characters
+        final File tmp = File.createTempFile(f.getName() + ".snapshot", ".tmp", f.getAbsoluteFile().getParentFile());
+        boolean written = false;
+        try {
+            final FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 512));
+                writeSnapshot(out);
+                out.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            // renameTo does not replace existing files on all platforms
+            if (!tmp.renameTo(f) && !(f.delete() && tmp.renameTo(f))) {
+                throw new IOException("could not rename " + tmp + " to " + f);
+            }
+            written = true;
+        } finally {
+            if (!written) tmp.delete();
+        }
+    }
+
+    private void writeSnapshot(DataOutputStream out) throws IOException {
+        final Token token = mToken;
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeByte(SNAPSHOT_VERSION);
+        out.writeUTF(env.name());
+        writeString(out, mClientId);
+        writeString(out, mClientSecret);
+        writeString(out, mRedirectUri == null ? null : mRedirectUri.toString());
+        writeString(out, mDefaultContentType);
+        out.writeBoolean(debugRequests);
+        writeString(out, token == null ? null : token.access);
+        writeString(out, token == null ? null : token.refresh);
+        writeString(out, token == null ? null : token.scope);
+        out.writeLong(token == null ? 0 : token.expiresIn);
+    }
+
+    private static ApiWrapper readSnapshot(DataInputStream in) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("not a wrapper snapshot");
+        final int version = in.readByte();
+        if (version != SNAPSHOT_VERSION) throw new IOException("unsupported snapshot version: " + version);
+        final Env env;
+        try {
+            env = Env.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("unknown environment: " + e.getMessage());
+        }
+        final String clientId = readString(in), clientSecret = readString(in), redirectUri = readString(in);
+        final String contentType = readString(in);
+        final boolean debug = in.readBoolean();
+        final Token token = new Token(readString(in), readString(in), readString(in));
+        token.expiresIn = in.readLong();
+
+        final ApiWrapper wrapper = new ApiWrapper(clientId, clientSecret,
+                redirectUri == null ? null : URI.create(redirectUri), token, env);
+        wrapper.mDefaultContentType = contentType;
+        wrapper.debugRequests = debug;
+        return wrapper;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
     }
 
 
@@ -471,25 +763,32 @@ public class ApiWrapper implements CloudAPI, Serializable {
     }
 
     /**
-     * Read wrapper from a file
+     * Read wrapper from a file written by {@link #toFile(java.io.File)}. Files written with
+     * Java serialization by older versions are still read.
      * @param f  the file
      * @return   the wrapper
      * @throws IOException IO problems
-     * @throws ClassNotFoundException class not found
+     * @throws ClassNotFoundException class not found (only for serialized wrappers)
      */
     public static ApiWrapper fromFile(File f) throws IOException, ClassNotFoundException {
-        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f));
+        final InputStream is = new BufferedInputStream(new FileInputStream(f), 512);
         try {
-            return (ApiWrapper) ois.readObject();
+            is.mark(2);
+            final boolean serialized = is.read() == 0xAC && is.read() == 0xED;
+            is.reset();
+            if (serialized) {
+                return (ApiWrapper) new ObjectInputStream(is).readObject();
+            } else {
+                return readSnapshot(new DataInputStream(is));
+            }
         } finally {
-            ois.close();
+            is.close();
         }
     }
 
     /** Creates an OAuth2 header for the given token */
     public static Header createOAuthHeader(Token token) {
-        return new BasicHeader(AUTH.WWW_AUTH_RESP, "OAuth " +
-                (token == null || !token.valid() ? "invalidated" : token.access));
+        return token == null || !token.valid() ? INVALIDATED_AUTH_HEADER : token.getAuthHeader();
     }
 
     /** Adds an OAuth2 header to a given request */
@@ -503,11 +802,21 @@ public class ApiWrapper implements CloudAPI, Serializable {
     /** Forces JSON */
     protected HttpRequest addAcceptHeader(HttpRequest request) {
         if (!request.containsHeader("Accept")) {
-            request.addHeader("Accept", getDefaultContentType());
+            request.addHeader(getAcceptHeader());
         }
         return request;
     }
 
+    private Header getAcceptHeader() {
+        final String contentType = getDefaultContentType();
+        Header header = mAcceptHeader;
+        if (header == null || !header.getValue().equals(contentType)) {
+            header = new BasicHeader("Accept", contentType);
+            mAcceptHeader = header;
+        }
+        return header;
+    }
+
     /** Adds all required headers to the request */
     protected HttpRequest addHeaders(HttpRequest req) {
         return addAcceptHeader(
@@ -0,0 +1,90 @@
+package com.soundcloud.api;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which request bodies are sent, with a token bucket shared by all
+ * requests using the limiter. Use one limiter for all uploads of a wrapper
+ * ({@link ApiWrapper#setBandwidthLimiter(BandwidthLimiter)}) to leave uplink capacity for other
+ * traffic, and/or one per request ({@link Request#setBandwidthLimiter(BandwidthLimiter)}).
+ *
+ * The rate can be changed at any time, it applies to transfers already running.
+ */
+public class BandwidthLimiter {
+    private long mRate;
+    private final long mBurst;
+    private double mTokens;
+    private long mLast;
+
+    /**
+     * @param bytesPerSecond the maximum rate, or 0 for no limit
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, 0);
+    }
+
+    /**
+     * @param bytesPerSecond the maximum rate, or 0 for no limit
+     * @param burst          how many bytes can be sent at once after an idle period, or 0 for
+     *                       a tenth of the rate (at least {@link ApiWrapper#BUFFER_SIZE})
+     */
+    public BandwidthLimiter(long bytesPerSecond, long burst) {
+        if (bytesPerSecond < 0 || burst < 0) throw new IllegalArgumentException("invalid rate");
+        mRate = bytesPerSecond;
+        mBurst = burst;
+        mTokens = burst();
+        mLast = System.nanoTime();
+    }
+
+    /** @return the maximum rate in bytes per second, 0 if not limited */
+    public synchronized long getRate() {
+        return mRate;
+    }
+
+    /**
+     * @param bytesPerSecond the new maximum rate, or 0 for no limit
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        if (bytesPerSecond < 0) throw new IllegalArgumentException("invalid rate: " + bytesPerSecond);
+        refill(System.nanoTime());
+        mRate = bytesPerSecond;
+        mTokens = Math.min(mTokens, burst());
+    }
+
+    /**
+     * Takes the given number of bytes from the bucket, waits until they would have been
+     * available at the current rate if the bucket is empty.
+     * @param bytes the number of bytes about to be sent
+     * @throws InterruptedIOException interrupted while waiting
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        final long wait;
+        synchronized (this) {
+            if (mRate <= 0) return;
+            refill(System.nanoTime());
+            // reserve, later callers wait for the bytes of earlier ones
+            mTokens -= bytes;
+            wait = mTokens >= 0 ? 0 : (long) (-mTokens * 1e9 / mRate);
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for bandwidth");
+            }
+        }
+    }
+
+    private long burst() {
+        return mBurst > 0 ? mBurst : Math.max(mRate / 10, ApiWrapper.BUFFER_SIZE);
+    }
+
+    private void refill(long now) {
+        if (mRate > 0) {
+            mTokens = Math.min(burst(), mTokens + (now - mLast) * (double) mRate / 1e9);
+        }
+        mLast = now;
+    }
+}
@@ -0,0 +1,134 @@
+package com.soundcloud.api;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of equally sized I/O buffers, shared by the request and response processing
+ * code to avoid allocating a new buffer for every call.
+ *
+ * Buffers obtained with {@link #acquire()} should be returned with {@link #release(ByteBuffer)}
+ * in a finally block. Buffers which are not returned are not lost (they are simply garbage
+ * collected), but show up in {@link #getOutstanding()}, which makes leaks easy to detect.
+ */
+public class BufferPool {
+    /** The pool used by the wrapper, heap buffers of {@link ApiWrapper#BUFFER_SIZE} bytes */
+    public static final BufferPool HEAP = new BufferPool(ApiWrapper.BUFFER_SIZE, 32, false);
+
+    private final int mBufferSize;
+    private final boolean mDirect;
+    private final ByteBuffer[] mPool;
+    private int mPooled;
+
+    private final AtomicLong mAcquired = new AtomicLong();
+    private final AtomicLong mHits     = new AtomicLong();
+    private final AtomicLong mReleased = new AtomicLong();
+
+    /**
+     * @param bufferSize the size of the buffers
+     * @param maxPooled  the maximum number of idle buffers kept in the pool
+     * @param direct     whether to allocate direct buffers
+     */
+    public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("invalid buffer size: " + bufferSize);
+        if (maxPooled < 0) throw new IllegalArgumentException("invalid pool size: " + maxPooled);
+        mBufferSize = bufferSize;
+        mDirect = direct;
+        mPool = new ByteBuffer[maxPooled];
+    }
+
+    /**
+     * @return a cleared buffer, taken from the pool if available
+     */
+    public ByteBuffer acquire() {
+        mAcquired.incrementAndGet();
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            if (mPooled > 0) {
+                buffer = mPool[--mPooled];
+                mPool[mPooled] = null;
+            }
+        }
+        if (buffer != null) {
+            mHits.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        } else {
+            return mDirect ? ByteBuffer.allocateDirect(mBufferSize) : ByteBuffer.allocate(mBufferSize);
+        }
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used afterwards.
+     * @param buffer a buffer obtained from {@link #acquire()}, or null
+     * @throws IllegalArgumentException if the buffer was not allocated by this pool, or is
+     *                                  already in the pool
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) return;
+        if (buffer.capacity() != mBufferSize || buffer.isDirect() != mDirect) {
+            throw new IllegalArgumentException("buffer not allocated by this pool");
+        }
+        synchronized (this) {
+            // handing out the same buffer twice would corrupt the I/O of both callers
+            for (int i = 0; i < mPooled; i++) {
+                if (mPool[i] == buffer) throw new IllegalArgumentException("buffer released twice");
+            }
+            if (mPooled < mPool.length) mPool[mPooled++] = buffer;
+        }
+        mReleased.incrementAndGet();
+    }
+
+    /** @return the size of the buffers */
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /** @return whether this pool hands out direct buffers */
+    public boolean isDirect() {
+        return mDirect;
+    }
+
+    /** @return the number of idle buffers currently in the pool */
+    public synchronized int getPooled() {
+        return mPooled;
+    }
+
+    /** @return the total number of buffers handed out */
+    public long getAcquired() {
+        return mAcquired.get();
+    }
+
+    /** @return the number of buffers handed out without allocation */
+    public long getHits() {
+        return mHits.get();
+    }
+
+    /** @return the total number of buffers returned */
+    public long getReleased() {
+        return mReleased.get();
+    }
+
+    /** @return the number of buffers in use or never returned (leaked) */
+    public long getOutstanding() {
+        return mAcquired.get() - mReleased.get();
+    }
+
+    /** @return the fraction of requests served from the pool, between 0 and 1 */
+    public double getHitRate() {
+        final long acquired = mAcquired.get();
+        return acquired == 0 ? 0 : (double) mHits.get() / acquired;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{" +
+                "size=" + mBufferSize +
+                ", direct=" + mDirect +
+                ", pooled=" + getPooled() +
+                ", acquired=" + getAcquired() +
+                ", hits=" + getHits() +
+                ", outstanding=" + getOutstanding() +
+                '}';
+    }
+}
@@ -0,0 +1,78 @@
+package com.soundcloud.api;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Caches client credentials tokens per scope until shortly before they expire. Concurrent
+ * requests for a scope which is not cached share one token request.
+ */
+class ClientTokenCache {
+    private final long mMargin;
+    private final ConcurrentMap<String, Token> mTokens = new ConcurrentHashMap<String, Token>();
+    private final ConcurrentMap<String, FutureTask<Token>> mInFlight =
+            new ConcurrentHashMap<String, FutureTask<Token>>();
+
+    /**
+     * @param margin how long before expiry a token is no longer handed out, in milliseconds
+     */
+    ClientTokenCache(long margin) {
+        mMargin = margin;
+    }
+
+    /**
+     * @param scope   the requested scope, or null
+     * @param request obtains a new token if none is cached
+     * @return the cached or newly obtained token
+     * @throws IOException the token request failed
+     */
+    Token get(String scope, final Callable<Token> request) throws IOException {
+        final String key = scope == null ? "" : scope;
+        final Token cached = mTokens.get(key);
+        if (usable(cached)) return cached;
+
+        final FutureTask<Token> task = new FutureTask<Token>(new Callable<Token>() {
+            @Override public Token call() throws Exception {
+                // check again, a flight which completed since the lookup has cached a token
+                final Token cached = mTokens.get(key);
+                if (usable(cached)) return cached;
+
+                final Token token = request.call();
+                mTokens.put(key, token);
+                return token;
+            }
+        });
+        final FutureTask<Token> inFlight = mInFlight.putIfAbsent(key, task);
+        if (inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                mInFlight.remove(key, task);
+            }
+            return TokenRefresher.await(task);
+        } else {
+            return TokenRefresher.await(inFlight);
+        }
+    }
+
+    /**
+     * Removes a token from the cache, so that the next call for its scope obtains a new one.
+     * @param token the token which was found to be invalid
+     * @return whether the token was cached
+     */
+    boolean invalidate(Token token) {
+        return token != null && mTokens.values().remove(token);
+    }
+
+    void clear() {
+        mTokens.clear();
+    }
+
+    private boolean usable(Token token) {
+        return token != null && token.access != null &&
+                (token.expiresIn == 0 || token.expiresIn - mMargin > System.currentTimeMillis());
+    }
+}
@@ -79,8 +79,10 @@ public interface CloudAPI {
      * Request a "signup" token using <a href="http://tools.ietf.org/html/draft-ietf-oauth-v2-15#section-4.4">
      * Client Credentials</a>.
      *
-     * Note that this token is <b>not</b> set as the current token in the wrapper - it should only be used
-     * for one request (typically the signup / user creation request).
+     * Note that this token is <b>not</b> set as the current token in the wrapper, nor reported to the
+     * {@link TokenListener} - it should only be used for requests which don't act for a user
+     * (typically the signup / user creation request).
+     * Tokens are cached per scope until shortly before they expire.
      * Also note that not all apps are allowed to request this token type (the wrapper throws
      * InvalidTokenException in this case).
      *
@@ -94,8 +96,11 @@ public interface CloudAPI {
      * Requests a token using <a href="http://tools.ietf.org/html/draft-ietf-oauth-v2-15#section-4.4">
      * Client Credentials</a>.
      *
-     * Note that this token is <b>not</b> set as the current token in the wrapper - it should only be used
-     * for one request (typically the signup / user creation request).
+     * Note that this token is <b>not</b> set as the current token in the wrapper, nor reported to the
+     * {@link TokenListener} - it should only be used for requests which don't act for a user
+     * (typically the signup / user creation request).
+     * Tokens are cached per scope until shortly before they expire, concurrent calls for the same
+     * scope share one token request.
      * Also note that not all apps are allowed to request for all scopes (the wrapper throws
      * InvalidTokenException in this case).
      *
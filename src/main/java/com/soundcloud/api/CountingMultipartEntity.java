@@ -11,12 +11,25 @@ import org.apache.http.HttpEntity;
 class CountingMultipartEntity implements HttpEntity {
     private HttpEntity mDelegate;
     private Request.TransferProgressListener mListener;
+    private final long mMinBytes, mMinInterval;
 
     public CountingMultipartEntity(HttpEntity delegate,
                                    Request.TransferProgressListener listener) {
+        this(delegate, listener, 0, 0);
+    }
+
+    /**
+     * @param minBytes    minimum number of bytes between two notifications
+     * @param minInterval minimum time between two notifications, in milliseconds
+     */
+    public CountingMultipartEntity(HttpEntity delegate,
+                                   Request.TransferProgressListener listener,
+                                   long minBytes, long minInterval) {
         super();
         mDelegate = delegate;
         mListener = listener;
+        mMinBytes = minBytes;
+        mMinInterval = minInterval * 1000000;
     }
 
     public void consumeContent() throws IOException {
@@ -52,30 +65,77 @@ class CountingMultipartEntity implements HttpEntity {
     }
 
     public void writeTo(OutputStream outstream) throws IOException {
-        mDelegate.writeTo(new CountingOutputStream(outstream, mListener));
+        final CountingOutputStream counting = new CountingOutputStream(outstream, mListener,
+                getContentLength(), mMinBytes, mMinInterval);
+        mDelegate.writeTo(counting);
+        counting.finish();
     }
 
+    /**
+     * Counts the bytes written and notifies the listener, at most once per granularity. The
+     * clock is only read once the byte limit is reached, and the same {@link Request.TransferProgress}
+     * is used for all notifications.
+     */
     private static class CountingOutputStream extends FilterOutputStream {
         private final Request.TransferProgressListener mListener;
-        private long mTransferred = 0;
+        private final Request.ThroughputListener mThroughputListener;
+        private final Request.TransferProgress mProgress;
+        private final long mMinBytes, mMinInterval, mStart;
+        private long mTransferred, mReported, mLastReport;
 
-        public CountingOutputStream(final OutputStream out, final Request.TransferProgressListener listener) {
+        public CountingOutputStream(final OutputStream out, final Request.TransferProgressListener listener,
+                                    long total, long minBytes, long minInterval) {
             super(out);
             mListener = listener;
+            mThroughputListener = listener instanceof Request.ThroughputListener ?
+                    (Request.ThroughputListener) listener : null;
+            mProgress = mThroughputListener == null ? null : new Request.TransferProgress(total);
+            mMinBytes = minBytes;
+            mMinInterval = minInterval;
+            mStart = mLastReport = System.nanoTime();
         }
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
             out.write(b, off, len);
             mTransferred += len;
-            if (mListener != null) mListener.transferred(mTransferred);
+            if (mListener != null && mTransferred - mReported >= mMinBytes) maybeReport();
         }
 
         @Override
         public void write(int b) throws IOException {
             out.write(b);
             mTransferred++;
-            if (mListener != null) mListener.transferred(mTransferred);
+            if (mListener != null && mTransferred - mReported >= mMinBytes) maybeReport();
+        }
+
+        private void maybeReport() throws IOException {
+            if (mMinInterval == 0 && mThroughputListener == null) {
+                report(0);
+            } else {
+                final long now = System.nanoTime();
+                if (now - mLastReport >= mMinInterval) report(now);
+            }
+        }
+
+        /** Reports the final count, unless it was the last one reported */
+        void finish() throws IOException {
+            if (mListener != null && (mTransferred != mReported || mTransferred == 0)) {
+                report(System.nanoTime());
+            }
+        }
+
+        private void report(long now) throws IOException {
+            if (mThroughputListener != null) {
+                mProgress.update(mTransferred, mTransferred - mReported, now - mLastReport, now - mStart);
+                mReported = mTransferred;
+                mLastReport = now;
+                mThroughputListener.progress(mProgress);
+            } else {
+                mReported = mTransferred;
+                mLastReport = now;
+                mListener.transferred(mTransferred);
+            }
         }
     }
 }
@@ -45,4 +45,26 @@ public interface Endpoints {
     String SEND_PASSWORD       = "/passwords/reset-instructions";
     String CONNECT             = "/connect";
     String FACEBOOK_CONNECT    = "/connect/via/facebook";
+
+    /**
+     * Precompiled versions of the templated endpoints above.
+     * <code>Request.to(Endpoints.Templates.TRACK_DETAILS, 1234)</code>
+     * @see Request#to(UriTemplate, long)
+     */
+    interface Templates {
+        UriTemplate TRACK_DETAILS    = UriTemplate.compile(Endpoints.TRACK_DETAILS);
+        UriTemplate TRACK_COMMENTS   = UriTemplate.compile(Endpoints.TRACK_COMMENTS);
+        UriTemplate TRACK_FAVORITERS = UriTemplate.compile(Endpoints.TRACK_FAVORITERS);
+
+        UriTemplate USER_DETAILS     = UriTemplate.compile(Endpoints.USER_DETAILS);
+        UriTemplate USER_FOLLOWINGS  = UriTemplate.compile(Endpoints.USER_FOLLOWINGS);
+        UriTemplate USER_FOLLOWERS   = UriTemplate.compile(Endpoints.USER_FOLLOWERS);
+        UriTemplate USER_TRACKS      = UriTemplate.compile(Endpoints.USER_TRACKS);
+        UriTemplate USER_FAVORITES   = UriTemplate.compile(Endpoints.USER_FAVORITES);
+        UriTemplate USER_PLAYLISTS   = UriTemplate.compile(Endpoints.USER_PLAYLISTS);
+
+        UriTemplate MY_FAVORITE      = UriTemplate.compile(Endpoints.MY_FAVORITE);
+        UriTemplate MY_FOLLOWER      = UriTemplate.compile(Endpoints.MY_FOLLOWER);
+        UriTemplate MY_FOLLOWING     = UriTemplate.compile(Endpoints.MY_FOLLOWING);
+    }
 }
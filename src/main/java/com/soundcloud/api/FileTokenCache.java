@@ -0,0 +1,242 @@
+package com.soundcloud.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares a token between several processes on the same host, through a local file.
+ *
+ * When a process finds the token to be invalid it takes out a lease on the file and refreshes
+ * the token, other processes wait for the refreshed token to show up in the file instead of
+ * refreshing it themselves (which would invalidate the refresh token of the first process).
+ * If the refresh does not complete within the lease time another process takes over.
+ *
+ * Register it with the wrapper as a {@link CloudAPI.TokenListener}:
+ * <code>
+ *     <pre>
+ * FileTokenCache cache = new FileTokenCache(new File("/var/run/myapp/token"));
+ * wrapper.setToken(cache.read());
+ * wrapper.setTokenListener(cache);
+ *     </pre>
+ * </code>
+ *
+ * Only tokens with a refresh token are cached, unless they are the result of a leased refresh
+ * (client credentials tokens are not reported to the listener, so they never replace the
+ * shared token). The cache holds a single token, use one file per wrapper token (and don't
+ * combine it with a {@link TokenStore}).
+ */
+public class FileTokenCache implements CloudAPI.TokenListener {
+    /** Default time a process gets to refresh the token, in milliseconds */
+    public static final long DEFAULT_LEASE = 30 * 1000;
+    /** How often a waiting process checks for the refreshed token, in milliseconds */
+    static final long POLL_INTERVAL = 50;
+
+    static final String ACCESS  = "access";
+    static final String REFRESH = "refresh";
+    static final String SCOPE   = "scope";
+    static final String EXPIRES = "expires";
+    static final String LEASE   = "lease";
+    static final String OWNER   = "owner";
+
+    // FileLocks are held per JVM, threads and instances sharing a file have to take turns
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private final File mFile;
+    private final long mLease;
+    private final String mOwner;
+    private final Object mLock;
+    private volatile boolean mLeased;
+
+    /**
+     * @param file the file holding the token, will be created if needed
+     */
+    public FileTokenCache(File file) {
+        this(file, DEFAULT_LEASE);
+    }
+
+    /**
+     * @param file  the file holding the token, will be created if needed
+     * @param lease how long other processes wait for a refresh of this process, in milliseconds
+     */
+    public FileTokenCache(File file, long lease) {
+        if (file == null) throw new IllegalArgumentException("file is null");
+        if (lease <= 0) throw new IllegalArgumentException("invalid lease: " + lease);
+        mFile = file;
+        mLease = lease;
+        mOwner = Long.toHexString(new Random().nextLong());
+        final String path = file.getAbsolutePath();
+        final Object lock = new Object();
+        final Object existing = LOCKS.putIfAbsent(path, lock);
+        mLock = existing == null ? lock : existing;
+    }
+
+    /**
+     * @return the cached token, or null if there is none
+     * @throws IOException the file could not be read
+     */
+    public Token read() throws IOException {
+        synchronized (mLock) {
+            final RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+            try {
+                final FileChannel channel = raf.getChannel();
+                final FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+                try {
+                    return token(load(channel));
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Replaces the cached token, and ends any refresh lease.
+     * @param token the token, or null to clear the cache
+     * @throws IOException the file could not be written
+     */
+    public void write(Token token) throws IOException {
+        synchronized (mLock) {
+            final RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+            try {
+                final FileChannel channel = raf.getChannel();
+                final FileLock lock = channel.lock();
+                try {
+                    final Properties props = new Properties();
+                    if (token != null && token.access != null) {
+                        props.setProperty(ACCESS, token.access);
+                        if (token.refresh != null) props.setProperty(REFRESH, token.refresh);
+                        if (token.scope != null) props.setProperty(SCOPE, token.scope);
+                        props.setProperty(EXPIRES, String.valueOf(token.expiresIn));
+                    }
+                    store(channel, props);
+                    mLeased = false;
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the token from the file if another process already replaced the invalid token.
+     * Otherwise this process gets the lease to refresh it, or waits for the process holding it.
+     *
+     * @param token the invalid token
+     * @return the replacement token, or null if this process should refresh
+     */
+    @Override public Token onTokenInvalid(Token token) {
+        final String invalid = token == null ? null : token.access;
+        final long deadline = System.currentTimeMillis() + mLease;
+        try {
+            for (;;) {
+                final Token replacement = replacementOrLease(invalid);
+                if (replacement != null || mLeased) return replacement;
+                if (System.currentTimeMillis() > deadline) return null;
+                Thread.sleep(POLL_INTERVAL);
+            }
+        } catch (IOException e) {
+            // cache not usable, refresh without coordination
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override public void onTokenRefreshed(Token token) {
+        synchronized (mLock) {
+            if (token == null || (!mLeased && token.refresh == null)) return;
+            try {
+                write(token);
+            } catch (IOException ignored) {
+                // the lease expires eventually
+            }
+        }
+    }
+
+    private Token replacementOrLease(String invalid) throws IOException {
+        synchronized (mLock) {
+            final RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+            try {
+                final FileChannel channel = raf.getChannel();
+                final FileLock lock = channel.lock();
+                try {
+                    final Properties props = load(channel);
+                    final Token cached = token(props);
+                    final long now = System.currentTimeMillis();
+                    if (cached != null && !cached.access.equals(invalid) &&
+                            (cached.expiresIn == 0 || cached.expiresIn > now)) {
+                        return cached;
+                    }
+                    mLeased = mOwner.equals(props.getProperty(OWNER)) || parseLong(props.getProperty(LEASE)) <= now;
+                    if (mLeased) {
+                        props.setProperty(LEASE, String.valueOf(now + mLease));
+                        props.setProperty(OWNER, mOwner);
+                        store(channel, props);
+                    }
+                    return null;
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private static Token token(Properties props) {
+        final String access = props.getProperty(ACCESS);
+        if (access == null) return null;
+        final Token token = new Token(access, props.getProperty(REFRESH), props.getProperty(SCOPE));
+        token.expiresIn = parseLong(props.getProperty(EXPIRES));
+        return token;
+    }
+
+    private static Properties load(FileChannel channel) throws IOException {
+        final Properties props = new Properties();
+        final long size = channel.size();
+        if (size > 0 && size < Integer.MAX_VALUE) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) ;
+            try {
+                props.load(new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+            } catch (IllegalArgumentException e) {
+                // partially written by a crashed process, treat as empty
+                props.clear();
+            }
+        }
+        return props;
+    }
+
+    private static void store(FileChannel channel, Properties props) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        props.store(bos, null);
+        final ByteBuffer buffer = ByteBuffer.wrap(bos.toByteArray());
+        channel.truncate(0);
+        while (buffer.hasRemaining()) channel.write(buffer, buffer.position());
+        channel.force(false);
+    }
+
+    private static long parseLong(String s) {
+        if (s == null) return 0;
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.soundcloud.api;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An <code>application/x-www-form-urlencoded</code> entity which encodes the parameters straight
+ * to the output stream, producing the same bytes as
+ * {@link org.apache.http.client.utils.URLEncodedUtils#format(java.util.List, String)} with UTF-8.
+ *
+ * The content length is computed without encoding, and parameter names (mostly constants
+ * from {@link Params}) are encoded once and cached.
+ */
+class FormEntity extends AbstractHttpEntity {
+    static final String CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private static final ConcurrentMap<String, byte[]> ENCODED_NAMES = new ConcurrentHashMap<String, byte[]>();
+    private static final int MAX_CACHED_NAMES = 1024, MAX_CACHED_NAME_LENGTH = 128;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final List<NameValuePair> mParams;
+    private long mContentLength = -1;
+
+    FormEntity(List<NameValuePair> params) {
+        mParams = params;
+        setContentType(CONTENT_TYPE);
+    }
+
+    @Override public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override public boolean isStreaming() {
+        return false;
+    }
+
+    @Override public long getContentLength() {
+        if (mContentLength < 0) {
+            long length = 0;
+            for (NameValuePair pair : mParams) {
+                if (length > 0) length++; // '&'
+                length += encodedName(pair.getName()).length + 1 + encodedLength(pair.getValue());
+            }
+            mContentLength = length;
+        }
+        return mContentLength;
+    }
+
+    @Override public InputStream getContent() throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream((int) Math.min(getContentLength(), Integer.MAX_VALUE));
+        writeTo(bos);
+        return new ByteArrayInputStream(bos.toByteArray());
+    }
+
+    @Override public void writeTo(OutputStream out) throws IOException {
+        if (out == null) throw new IllegalArgumentException("Output stream may not be null");
+        final ByteBuffer chunk = BufferPool.HEAP.acquire();
+        try {
+            final byte[] buffer = chunk.array();
+            int pos = 0;
+            boolean first = true;
+            for (NameValuePair pair : mParams) {
+                if (!first) {
+                    if (pos == buffer.length) { out.write(buffer, 0, pos); pos = 0; }
+                    buffer[pos++] = '&';
+                }
+                first = false;
+                final byte[] name = encodedName(pair.getName());
+                if (pos + name.length + 1 > buffer.length) { out.write(buffer, 0, pos); pos = 0; }
+                if (name.length + 1 > buffer.length) {
+                    out.write(name);
+                    out.write('=');
+                } else {
+                    System.arraycopy(name, 0, buffer, pos, name.length);
+                    pos += name.length;
+                    buffer[pos++] = '=';
+                }
+                pos = encode(pair.getValue(), buffer, pos, out);
+            }
+            out.write(buffer, 0, pos);
+            out.flush();
+        } finally {
+            BufferPool.HEAP.release(chunk);
+        }
+    }
+
+    private static byte[] encodedName(String name) {
+        byte[] encoded = ENCODED_NAMES.get(name);
+        if (encoded == null) {
+            // leave room for the longest sequence, so encode never needs to flush
+            final byte[] buffer = new byte[(int) encodedLength(name) + 12];
+            try {
+                encoded = Arrays.copyOf(buffer, encode(name, buffer, 0, null));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            if (name.length() <= MAX_CACHED_NAME_LENGTH && ENCODED_NAMES.size() < MAX_CACHED_NAMES) {
+                ENCODED_NAMES.putIfAbsent(name, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    private static boolean isSafe(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == '-' || c == '_' || c == '.' || c == '*';
+    }
+
+    /** @return the length of the encoded string, in bytes */
+    static long encodedLength(String s) {
+        if (s == null) return 0;
+        long length = 0;
+        final int n = s.length();
+        for (int i = 0; i < n; i++) {
+            final char c = s.charAt(i);
+            if (isSafe(c) || c == ' ') {
+                length++;
+            } else if (c < 0x80) {
+                length += 3;
+            } else if (c < 0x800) {
+                length += 6;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 12;
+                i++;
+            } else if (isSurrogate(c)) {
+                length += 3; // unpaired surrogates are replaced with '?'
+            } else {
+                length += 9;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes a string into the buffer, flushing it to the stream when full.
+     * @return the new position in the buffer
+     */
+    private static int encode(String s, byte[] buffer, int pos, OutputStream out) throws IOException {
+        if (s == null) return pos;
+        final int n = s.length();
+        for (int i = 0; i < n; i++) {
+            // room for the longest sequence (4 percent-encoded bytes)
+            if (pos + 12 > buffer.length) {
+                out.write(buffer, 0, pos);
+                pos = 0;
+            }
+            final char c = s.charAt(i);
+            if (isSafe(c)) {
+                buffer[pos++] = (byte) c;
+            } else if (c == ' ') {
+                buffer[pos++] = '+';
+            } else if (c < 0x80) {
+                pos = percent(c, buffer, pos);
+            } else if (c < 0x800) {
+                pos = percent(0xC0 | (c >> 6), buffer, pos);
+                pos = percent(0x80 | (c & 0x3F), buffer, pos);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                pos = percent(0xF0 | (cp >> 18), buffer, pos);
+                pos = percent(0x80 | ((cp >> 12) & 0x3F), buffer, pos);
+                pos = percent(0x80 | ((cp >> 6) & 0x3F), buffer, pos);
+                pos = percent(0x80 | (cp & 0x3F), buffer, pos);
+            } else if (isSurrogate(c)) {
+                pos = percent('?', buffer, pos);
+            } else {
+                pos = percent(0xE0 | (c >> 12), buffer, pos);
+                pos = percent(0x80 | ((c >> 6) & 0x3F), buffer, pos);
+                pos = percent(0x80 | (c & 0x3F), buffer, pos);
+            }
+        }
+        return pos;
+    }
+
+    private static boolean isSurrogate(char c) {
+        return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+    }
+
+    private static int percent(int b, byte[] buffer, int pos) {
+        buffer[pos++] = '%';
+        buffer[pos++] = (byte) HEX[(b >> 4) & 0xF];
+        buffer[pos++] = (byte) HEX[b & 0xF];
+        return pos;
+    }
+}
@@ -1,32 +1,72 @@
 package com.soundcloud.api;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.util.ByteArrayBuffer;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 
 /**
  * Helper class for various HTTP related functions.
  */
 public class Http {
+    /** Charset used if the response does not specify one */
+    public static final Charset DEFAULT_CHARSET = Charset.forName(HTTP.UTF_8);
+
+    /** Upper bound for the initial size of the result buffer, regardless of Content-Length */
+    static final int MAX_PREALLOCATE = 256 * 1024;
+
+    /** Size of the chunks used when streaming a response to a file channel */
+    static final int TRANSFER_CHUNK_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<Decoder> DECODER = new ThreadLocal<Decoder>() {
+        @Override protected Decoder initialValue() {
+            return new Decoder();
+        }
+    };
+
     private Http() {
     }
 
     /**
-     * Returns a String representation of the response
+     * Returns a String representation of the response, decoded with the charset specified
+     * in the Content-Type header (UTF-8 if none is given).
      *
      * @param response an HTTP response
      * @return the content body
      * @throws IOException network error
      */
     public static String getString(HttpResponse response) throws IOException {
-        InputStream is = response.getEntity().getContent();
+        final HttpEntity entity = response.getEntity();
+        InputStream is = entity.getContent();
         if (is == null) return null;
 
+        return DECODER.get().decode(is, getCharset(entity), sizeHint(response));
+    }
+
+    /** @return the Content-Length of the response, capped at {@link #MAX_PREALLOCATE} */
+    static int sizeHint(HttpResponse response) {
         int length = ApiWrapper.BUFFER_SIZE;
         Header contentLength = null;
         try {
@@ -36,16 +76,31 @@ public class Http {
 
         if (contentLength != null) {
             try {
-                length = Integer.parseInt(contentLength.getValue());
+                length = Math.min(Integer.parseInt(contentLength.getValue()), MAX_PREALLOCATE);
             } catch (NumberFormatException ignored) {
             }
         }
+        return Math.max(length, 1);
+    }
 
-        final StringBuilder sb = new StringBuilder(length);
-        int n;
-        byte[] buffer = new byte[ApiWrapper.BUFFER_SIZE];
-        while ((n = is.read(buffer)) != -1) sb.append(new String(buffer, 0, n));
-        return sb.toString();
+    /**
+     * @param entity the entity
+     * @return the charset of the entity, or {@link #DEFAULT_CHARSET} if unknown / unsupported
+     */
+    public static Charset getCharset(HttpEntity entity) {
+        String name = null;
+        try {
+            name = EntityUtils.getContentCharSet(entity);
+        } catch (UnsupportedOperationException ignored) {
+        }
+        if (name != null) {
+            try {
+                return Charset.forName(name);
+            } catch (IllegalCharsetNameException ignored) {
+            } catch (UnsupportedCharsetException ignored) {
+            }
+        }
+        return DEFAULT_CHARSET;
     }
 
     public static JSONObject getJSON(HttpResponse response) throws IOException {
@@ -59,8 +114,204 @@ public class Http {
         }
     }
 
+    /**
+     * Returns a streaming reader over the response body, for binding large documents without
+     * reading them into memory first.
+     *
+     * @param response an HTTP response
+     * @return a reader for the content body
+     * @throws IOException network error, or no content
+     * @see com.soundcloud.api.model.Model
+     */
+    public static JsonReader getJsonReader(HttpResponse response) throws IOException {
+        final HttpEntity entity = response.getEntity();
+        final InputStream is = entity.getContent();
+        if (is == null) throw new IOException("JSON response is empty");
+        return new JsonReader(new InputStreamReader(is, getCharset(entity)));
+    }
+
+    /**
+     * Returns a lazy view over the JSON response, which only decodes the values that are accessed.
+     * This is cheaper than {@link #getJSON(HttpResponse)} if only a few fields are needed.
+     *
+     * @param response an HTTP response
+     * @return a view of the JSON document
+     * @throws IOException network error, empty or malformed document
+     */
+    public static JsonView getJsonView(HttpResponse response) throws IOException {
+        final HttpEntity entity = response.getEntity();
+        final InputStream is = entity.getContent();
+        if (is == null) throw new IOException("JSON response is empty");
+
+        final ByteArrayBuffer buffer = new ByteArrayBuffer(sizeHint(response));
+        final ByteBuffer chunk = BufferPool.HEAP.acquire();
+        try {
+            int n;
+            while ((n = is.read(chunk.array(), 0, chunk.capacity())) != -1) buffer.append(chunk.array(), 0, n);
+        } finally {
+            BufferPool.HEAP.release(chunk);
+            is.close();
+        }
+        if (buffer.isEmpty()) throw new IOException("JSON response is empty");
+
+        final Charset charset = getCharset(entity);
+        if (charset.equals(JsonView.UTF_8) || charset.name().equals("US-ASCII")) {
+            return JsonView.parse(buffer.buffer(), 0, buffer.length());
+        } else {
+            return JsonView.parse(new String(buffer.buffer(), 0, buffer.length(), charset).getBytes(HTTP.UTF_8));
+        }
+    }
+
+    /**
+     * Streams the response body into a file, without holding it in memory.
+     *
+     * @param response an HTTP response
+     * @param file     the target file, will be overwritten
+     * @param listener listener for progress updates, can be null
+     * @return the number of bytes written
+     * @throws IOException network or file error, or the transfer was cancelled by the listener
+     */
+    public static long writeTo(HttpResponse response, File file, Request.TransferProgressListener listener)
+            throws IOException {
+        final FileOutputStream fos = new FileOutputStream(file);
+        try {
+            return writeTo(response, fos.getChannel(), listener);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Streams the response body into a file channel at its current position, using
+     * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}. The position of the channel
+     * is advanced by the number of bytes written.
+     *
+     * @param response an HTTP response
+     * @param channel  the target channel
+     * @param listener listener for progress updates, can be null
+     * @return the number of bytes written
+     * @throws IOException network or file error, or the transfer was cancelled by the listener
+     */
+    public static long writeTo(HttpResponse response, FileChannel channel, Request.TransferProgressListener listener)
+            throws IOException {
+        final InputStream is = content(response);
+        if (is == null) return 0;
+        try {
+            final ReadableByteChannel source = Channels.newChannel(is);
+            final long start = channel.position();
+            long position = start, n;
+            while ((n = channel.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+                position += n;
+                if (listener != null) listener.transferred(position - start);
+            }
+            channel.position(position);
+            return position - start;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Streams the response body into a channel, without holding it in memory.
+     *
+     * @param response an HTTP response
+     * @param channel  the target channel
+     * @param listener listener for progress updates, can be null
+     * @return the number of bytes written
+     * @throws IOException network or channel error, or the transfer was cancelled by the listener
+     */
+    public static long writeTo(HttpResponse response, WritableByteChannel channel,
+                               Request.TransferProgressListener listener) throws IOException {
+        if (channel instanceof FileChannel) return writeTo(response, (FileChannel) channel, listener);
+
+        final InputStream is = content(response);
+        if (is == null) return 0;
+        final ByteBuffer buffer = BufferPool.HEAP.acquire();
+        try {
+            long transferred = 0;
+            int n;
+            while ((n = is.read(buffer.array(), 0, buffer.capacity())) != -1) {
+                buffer.limit(n);
+                while (buffer.hasRemaining()) channel.write(buffer);
+                buffer.clear();
+                transferred += n;
+                if (listener != null) listener.transferred(transferred);
+            }
+            return transferred;
+        } finally {
+            BufferPool.HEAP.release(buffer);
+            is.close();
+        }
+    }
+
+    private static InputStream content(HttpResponse response) throws IOException {
+        final HttpEntity entity = response.getEntity();
+        return entity == null ? null : entity.getContent();
+    }
+
     public static String etag(HttpResponse resp) {
         Header etag = resp.getFirstHeader("Etag");
         return etag != null ? etag.getValue() : null;
     }
+
+    /**
+     * Per-thread decoding state: the decoder of the last used charset and the output buffer.
+     * Input buffers come from {@link BufferPool#HEAP}, so decoding a response does not
+     * allocate anything apart from the result.
+     */
+    static class Decoder {
+        private final char[] mChars = new char[ApiWrapper.BUFFER_SIZE];
+        private CharsetDecoder mDecoder;
+
+        String decode(InputStream is, Charset charset, int sizeHint) throws IOException {
+            final CharsetDecoder decoder = decoder(charset);
+            final StringBuilder sb = new StringBuilder(sizeHint);
+            final ByteBuffer in = BufferPool.HEAP.acquire();
+            final CharBuffer out = CharBuffer.wrap(mChars);
+            in.limit(0);
+            try {
+                int n;
+                do {
+                    // keep bytes of incomplete multi-byte sequences for the next round
+                    in.compact();
+                    n = is.read(in.array(), in.position(), in.remaining());
+                    if (n > 0) in.position(in.position() + n);
+                    in.flip();
+                    decode(decoder, in, out, sb, n == -1);
+                } while (n != -1);
+            } finally {
+                BufferPool.HEAP.release(in);
+            }
+
+            while (decoder.flush(out) == CoderResult.OVERFLOW) drain(out, sb);
+            drain(out, sb);
+            return sb.toString();
+        }
+
+        private CharsetDecoder decoder(Charset charset) {
+            if (mDecoder == null || !mDecoder.charset().equals(charset)) {
+                mDecoder = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            return mDecoder.reset();
+        }
+
+        private static void decode(CharsetDecoder decoder, ByteBuffer in, CharBuffer out,
+                                   StringBuilder sb, boolean endOfInput) {
+            CoderResult result;
+            while ((result = decoder.decode(in, out, endOfInput)) == CoderResult.OVERFLOW) {
+                drain(out, sb);
+            }
+            if (result.isError()) {
+                // not reached with REPLACE actions
+                throw new IllegalStateException(result.toString());
+            }
+        }
+
+        private static void drain(CharBuffer out, StringBuilder sb) {
+            sb.append(out.array(), 0, out.position());
+            out.clear();
+        }
+    }
 }
@@ -0,0 +1,461 @@
+package com.soundcloud.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A minimal pull parser for JSON documents, used to bind API responses directly
+ * to model objects without building intermediate {@link org.json.JSONObject}s.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  JsonReader reader = Http.getJsonReader(response);
+ *  reader.beginObject();
+ *  while (reader.hasNext()) {
+ *      String name = reader.nextName();
+ *      if ("id".equals(name)) id = reader.nextLong();
+ *      else reader.skipValue();
+ *  }
+ *  reader.endObject();
+ *   </pre>
+ * </code>
+ *
+ * Values are read leniently: numbers can be read as strings and vice versa, and
+ * <code>null</code> reads as <code>null</code>, <code>0</code> or <code>false</code>.
+ * Object member names are cached and interned, so reading the names of a repeated structure
+ * does not allocate.
+ */
+public class JsonReader implements Closeable {
+    /** The type of the next token in the stream */
+    public enum Type {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT    = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY       = 2;
+    private static final int NONEMPTY_ARRAY    = 3;
+    private static final int EMPTY_OBJECT      = 4;
+    private static final int DANGLING_NAME     = 5;
+    private static final int NONEMPTY_OBJECT   = 6;
+
+    private static final int NAME_CACHE_SIZE = 256;
+
+    private final Reader mIn;
+    private final char[] mBuffer = new char[ApiWrapper.BUFFER_SIZE];
+    private int mPos, mLimit;
+
+    private int[] mStack = new int[32];
+    private int mStackSize = 1;
+
+    private Type mPeeked;
+    private boolean mBoolean;
+    private final StringBuilder mNumber = new StringBuilder(32);
+    private final StringBuilder mBuilder = new StringBuilder(64);
+    private final String[] mNames = new String[NAME_CACHE_SIZE];
+
+    /**
+     * @param in the character stream to read from
+     */
+    public JsonReader(Reader in) {
+        if (in == null) throw new IllegalArgumentException("reader may not be null");
+        mIn = in;
+        mStack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * @return the type of the next token, without consuming it
+     * @throws IOException syntax or I/O error
+     */
+    public Type peek() throws IOException {
+        if (mPeeked == null) mPeeked = doPeek();
+        return mPeeked;
+    }
+
+    /** @throws IOException if the next token is not the beginning of an array */
+    public void beginArray() throws IOException {
+        expect(Type.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    /** @throws IOException if the next token is not the end of an array */
+    public void endArray() throws IOException {
+        expect(Type.END_ARRAY);
+        mStackSize--;
+    }
+
+    /** @throws IOException if the next token is not the beginning of an object */
+    public void beginObject() throws IOException {
+        expect(Type.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    /** @throws IOException if the next token is not the end of an object */
+    public void endObject() throws IOException {
+        expect(Type.END_OBJECT);
+        mStackSize--;
+    }
+
+    /**
+     * @return true if the current array or object has more elements
+     * @throws IOException syntax or I/O error
+     */
+    public boolean hasNext() throws IOException {
+        final Type next = peek();
+        return next != Type.END_OBJECT && next != Type.END_ARRAY && next != Type.END_DOCUMENT;
+    }
+
+    /**
+     * @return the (interned) name of the next object member
+     * @throws IOException if the next token is not a name
+     */
+    public String nextName() throws IOException {
+        expect(Type.NAME);
+        return readString(true);
+    }
+
+    /**
+     * @return the next string value, the textual value of a number or boolean, or null
+     * @throws IOException if the next token is not a value
+     */
+    public String nextString() throws IOException {
+        switch (peek()) {
+            case STRING:  mPeeked = null; return readString(false);
+            case NUMBER:  mPeeked = null; return mNumber.toString();
+            case BOOLEAN: mPeeked = null; return String.valueOf(mBoolean);
+            case NULL:    mPeeked = null; return null;
+            default: throw unexpected(Type.STRING);
+        }
+    }
+
+    /**
+     * @return the next value as long, 0 for null
+     * @throws IOException if the next token is not a number or a numeric string
+     */
+    public long nextLong() throws IOException {
+        switch (peek()) {
+            case NUMBER:
+                mPeeked = null;
+                return parseLong(mNumber);
+            case STRING:
+                mPeeked = null;
+                final String s = readString(false);
+                mNumber.setLength(0);
+                mNumber.append(s);
+                return parseLong(mNumber);
+            case NULL:
+                mPeeked = null;
+                return 0;
+            default: throw unexpected(Type.NUMBER);
+        }
+    }
+
+    /**
+     * @return the next value as int, 0 for null
+     * @throws IOException if the next token is not a number or a numeric string
+     */
+    public int nextInt() throws IOException {
+        final long l = nextLong();
+        if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) throw syntaxError("not an int: " + l);
+        return (int) l;
+    }
+
+    /**
+     * @return the next value as double, 0 for null
+     * @throws IOException if the next token is not a number or a numeric string
+     */
+    public double nextDouble() throws IOException {
+        switch (peek()) {
+            case NUMBER:
+            case STRING:
+                final String s = nextString();
+                try {
+                    return Double.parseDouble(s);
+                } catch (NumberFormatException e) {
+                    throw syntaxError("not a number: " + s);
+                }
+            case NULL:
+                mPeeked = null;
+                return 0;
+            default: throw unexpected(Type.NUMBER);
+        }
+    }
+
+    /**
+     * @return the next boolean value, false for null
+     * @throws IOException if the next token is not a boolean
+     */
+    public boolean nextBoolean() throws IOException {
+        switch (peek()) {
+            case BOOLEAN: mPeeked = null; return mBoolean;
+            case NULL:    mPeeked = null; return false;
+            default: throw unexpected(Type.BOOLEAN);
+        }
+    }
+
+    /** @throws IOException if the next token is not null */
+    public void nextNull() throws IOException {
+        expect(Type.NULL);
+    }
+
+    /**
+     * Skips the next value, including nested arrays and objects.
+     * @throws IOException syntax or I/O error
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_ARRAY:  beginArray();  depth++; break;
+                case BEGIN_OBJECT: beginObject(); depth++; break;
+                case END_ARRAY:    endArray();    depth--; break;
+                case END_OBJECT:   endObject();   depth--; break;
+                case NAME:
+                case STRING:
+                    mPeeked = null;
+                    skipString();
+                    break;
+                case END_DOCUMENT: throw syntaxError("unexpected end of document");
+                default: mPeeked = null;
+            }
+        } while (depth > 0);
+    }
+
+    @Override public void close() throws IOException {
+        mPeeked = Type.END_DOCUMENT;
+        mStackSize = 0;
+        mIn.close();
+    }
+
+    private Type doPeek() throws IOException {
+        final int scope = mStack[mStackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY:
+                mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') return Type.END_ARRAY;
+                if (scope == NONEMPTY_ARRAY) {
+                    if (c != ',') throw syntaxError("expected ',' or ']'");
+                } else {
+                    mPos--;
+                }
+                return readValue();
+
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                mStack[mStackSize - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+                if (c == '}') return Type.END_OBJECT;
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntaxError("expected ',' or '}'");
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') throw syntaxError("expected name");
+                return Type.NAME;
+
+            case DANGLING_NAME:
+                mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':') throw syntaxError("expected ':'");
+                return readValue();
+
+            case EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+                return readValue();
+
+            default:
+                if (nextNonWhitespace() != -1) throw syntaxError("expected end of document");
+                mPos--;
+                return Type.END_DOCUMENT;
+        }
+    }
+
+    private Type readValue() throws IOException {
+        final int c = nextNonWhitespace();
+        switch (c) {
+            case '{': return Type.BEGIN_OBJECT;
+            case '[': return Type.BEGIN_ARRAY;
+            case '"': return Type.STRING;
+            case 't':
+            case 'f':
+            case 'n':
+                return readLiteral(c);
+            case -1: throw syntaxError("unexpected end of document");
+            default:
+                mNumber.setLength(0);
+                for (int n = c; isNumberChar(n); n = read()) mNumber.append((char) n);
+                mPos--;
+                if (mNumber.length() == 0) throw syntaxError("unexpected character '" + (char) c + "'");
+                return Type.NUMBER;
+        }
+    }
+
+    private Type readLiteral(int first) throws IOException {
+        final String expected = first == 't' ? "true" : first == 'f' ? "false" : "null";
+        for (int i = 1; i < expected.length(); i++) {
+            if (read() != expected.charAt(i)) throw syntaxError("expected " + expected);
+        }
+        if (first == 'n') return Type.NULL;
+        mBoolean = first == 't';
+        return Type.BOOLEAN;
+    }
+
+    private String readString(boolean name) throws IOException {
+        mPeeked = null;
+        StringBuilder sb = null;
+        int start = mPos;
+        while (true) {
+            while (mPos < mLimit) {
+                final char c = mBuffer[mPos++];
+                if (c == '"') {
+                    final int len = mPos - 1 - start;
+                    if (sb == null) {
+                        return name ? cachedName(mBuffer, start, len) : new String(mBuffer, start, len);
+                    } else {
+                        sb.append(mBuffer, start, len);
+                        return name ? sb.toString().intern() : sb.toString();
+                    }
+                } else if (c == '\\') {
+                    if (sb == null) sb = builder();
+                    sb.append(mBuffer, start, mPos - 1 - start);
+                    sb.append(readEscape());
+                    start = mPos;
+                }
+            }
+            if (sb == null) sb = builder();
+            sb.append(mBuffer, start, mPos - start);
+            if (!fill()) throw syntaxError("unterminated string");
+            start = mPos;
+        }
+    }
+
+    private void skipString() throws IOException {
+        int c;
+        while ((c = read()) != '"') {
+            if (c == -1) throw syntaxError("unterminated string");
+            if (c == '\\') readEscape();
+        }
+    }
+
+    private char readEscape() throws IOException {
+        final int c = read();
+        switch (c) {
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    final int digit = Character.digit(read(), 16);
+                    if (digit == -1) throw syntaxError("invalid unicode escape");
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case -1: throw syntaxError("unterminated escape sequence");
+            default: return (char) c;
+        }
+    }
+
+    private String cachedName(char[] chars, int start, int len) {
+        int hash = 0;
+        for (int i = start; i < start + len; i++) hash = 31 * hash + chars[i];
+        final int index = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+
+        final String cached = mNames[index];
+        if (cached != null && cached.length() == len) {
+            int i = 0;
+            while (i < len && cached.charAt(i) == chars[start + i]) i++;
+            if (i == len) return cached;
+        }
+        final String s = new String(chars, start, len).intern();
+        mNames[index] = s;
+        return s;
+    }
+
+    private static long parseLong(CharSequence s) throws IOException {
+        final int len = s.length();
+        final boolean negative = len > 0 && s.charAt(0) == '-';
+        if (len > (negative ? 1 : 0) && len < 19) {
+            long value = 0;
+            int i = negative ? 1 : 0;
+            for (; i < len; i++) {
+                final char c = s.charAt(i);
+                if (c < '0' || c > '9') break;
+                value = value * 10 + (c - '0');
+            }
+            if (i == len) return negative ? -value : value;
+        }
+        // slow path: large, fractional or exponent notation
+        try {
+            return Long.parseLong(s.toString());
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(s.toString());
+            } catch (NumberFormatException e2) {
+                throw new IOException("not a number: " + s);
+            }
+        }
+    }
+
+    private static boolean isNumberChar(int c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (mPos >= mLimit && !fill()) {
+            // make a subsequent mPos-- a no-op
+            mPos++;
+            return -1;
+        }
+        return mBuffer[mPos++];
+    }
+
+    private boolean fill() throws IOException {
+        mPos = mLimit = 0;
+        int n;
+        while ((n = mIn.read(mBuffer, 0, mBuffer.length)) == 0) ;
+        if (n == -1) return false;
+        mLimit = n;
+        return true;
+    }
+
+    private StringBuilder builder() {
+        mBuilder.setLength(0);
+        return mBuilder;
+    }
+
+    private void expect(Type type) throws IOException {
+        if (peek() != type) throw unexpected(type);
+        mPeeked = null;
+    }
+
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            final int[] stack = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, stack, 0, mStackSize);
+            mStack = stack;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    private IOException unexpected(Type expected) throws IOException {
+        return syntaxError("expected " + expected + " but was " + peek());
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("could not parse JSON document: " + message);
+    }
+}
@@ -0,0 +1,418 @@
+package com.soundcloud.api;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * A lazy, read-only view over a JSON document held as UTF-8 bytes.
+ *
+ * Creating the view performs a single pass over the bytes which records the position of every
+ * value in a compact index. Member names and values are only decoded when they are accessed,
+ * so reading a couple of fields from a large document costs little more than the indexing pass.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  JsonView me = Http.getJsonView(wrapper.get(Request.to(Endpoints.MY_DETAILS)));
+ *  String name = me.getString("username");
+ *  long tracks = me.getLong("track_count", 0);
+ *   </pre>
+ * </code>
+ *
+ * @see Http#getJsonView(org.apache.http.HttpResponse)
+ */
+public class JsonView {
+    public static final int OBJECT  = 1;
+    public static final int ARRAY   = 2;
+    public static final int STRING  = 3;
+    public static final int NUMBER  = 4;
+    public static final int BOOLEAN = 5;
+    public static final int NULL    = 6;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Index mIndex;
+    private final int mToken;
+
+    private JsonView(Index index, int token) {
+        mIndex = index;
+        mToken = token;
+    }
+
+    /**
+     * @param data UTF-8 encoded JSON
+     * @return a view of the top level value
+     * @throws IOException if the document is malformed
+     */
+    public static JsonView parse(byte[] data) throws IOException {
+        return parse(data, 0, data.length);
+    }
+
+    /**
+     * @param data   UTF-8 encoded JSON
+     * @param offset start of the document
+     * @param length length of the document
+     * @return a view of the top level value
+     * @throws IOException if the document is malformed
+     */
+    public static JsonView parse(byte[] data, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new JsonView(new Index(data, offset, offset + length), 0);
+    }
+
+    /** @return the type of this value, one of {@link #OBJECT}, {@link #ARRAY}, {@link #STRING} etc. */
+    public int type() {
+        return mIndex.type(mToken);
+    }
+
+    public boolean isObject() {
+        return type() == OBJECT;
+    }
+
+    public boolean isArray() {
+        return type() == ARRAY;
+    }
+
+    public boolean isNull() {
+        return type() == NULL;
+    }
+
+    /** @return the number of members of an object or elements of an array, 0 for other values */
+    public int length() {
+        final int type = type();
+        if (type != OBJECT && type != ARRAY) return 0;
+        int n = 0;
+        for (int t = mToken + 1; t < mIndex.next(mToken); t = mIndex.next(type == OBJECT ? t + 1 : t)) n++;
+        return n;
+    }
+
+    /**
+     * @param name the member name
+     * @return true if this is an object containing the given member
+     */
+    public boolean has(String name) {
+        return find(name) != -1;
+    }
+
+    /**
+     * @param name the member name
+     * @return the member value, or null if there is no such member
+     */
+    public JsonView get(String name) {
+        final int t = find(name);
+        return t == -1 ? null : new JsonView(mIndex, t);
+    }
+
+    /**
+     * @param index position in the array
+     * @return the element value, or null if out of bounds or not an array
+     */
+    public JsonView get(int index) {
+        if (type() != ARRAY || index < 0) return null;
+        for (int t = mToken + 1; t < mIndex.next(mToken); t = mIndex.next(t)) {
+            if (index-- == 0) return new JsonView(mIndex, t);
+        }
+        return null;
+    }
+
+    /**
+     * @param name the member name
+     * @return the member value as string, or null if missing or null
+     */
+    public String getString(String name) {
+        final int t = find(name);
+        return t == -1 ? null : mIndex.string(t);
+    }
+
+    public long getLong(String name, long fallback) {
+        final int t = find(name);
+        return t == -1 ? fallback : mIndex.number(t, fallback);
+    }
+
+    public int getInt(String name, int fallback) {
+        return (int) getLong(name, fallback);
+    }
+
+    public double getDouble(String name, double fallback) {
+        final int t = find(name);
+        return t == -1 ? fallback : mIndex.decimal(t, fallback);
+    }
+
+    public boolean getBoolean(String name, boolean fallback) {
+        final int t = find(name);
+        return t == -1 ? fallback : mIndex.bool(t, fallback);
+    }
+
+    /** @return the value as string (null for JSON null, the JSON text for objects and arrays) */
+    public String asString() {
+        return mIndex.string(mToken);
+    }
+
+    public long asLong(long fallback) {
+        return mIndex.number(mToken, fallback);
+    }
+
+    public double asDouble(double fallback) {
+        return mIndex.decimal(mToken, fallback);
+    }
+
+    public boolean asBoolean(boolean fallback) {
+        return mIndex.bool(mToken, fallback);
+    }
+
+    /** @return the JSON text of this value */
+    @Override
+    public String toString() {
+        return mIndex.raw(mToken);
+    }
+
+    private int find(String name) {
+        if (type() != OBJECT) return -1;
+        for (int key = mToken + 1; key < mIndex.next(mToken); key = mIndex.next(key + 1)) {
+            if (mIndex.nameEquals(key, name)) return key + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Positions of all values in the document. Each token takes up four ints: type, start, end and
+     * the index of the token following it (and all its children). Object members are stored as
+     * a string token for the name followed by the value.
+     */
+    static class Index {
+        private static final int ESCAPED = 0x10;
+        private static final int SIZE = 4;
+        /** Nesting deeper than this is rejected instead of overflowing the stack */
+        static final int MAX_DEPTH = 256;
+
+        final byte[] mData;
+        private final int mLimit;
+        private int[] mTokens;
+        private int mCount;
+
+        Index(byte[] data, int offset, int limit) throws IOException {
+            mData = data;
+            mLimit = limit;
+            // grown as needed, documents are mostly strings and numbers of some length
+            mTokens = new int[SIZE * Math.min(1024, Math.max(16, (limit - offset) / 32))];
+            int pos = skipWhitespace(parseValue(skipWhitespace(offset), 0));
+            if (pos != limit) throw error("expected end of document", pos);
+        }
+
+        int type(int t) {
+            return mTokens[t * SIZE] & ~ESCAPED;
+        }
+
+        int next(int t) {
+            return mTokens[t * SIZE + 3];
+        }
+
+        boolean nameEquals(int t, String name) {
+            final int start = mTokens[t * SIZE + 1], end = mTokens[t * SIZE + 2];
+            final int len = name.length();
+            if ((mTokens[t * SIZE] & ESCAPED) == 0) {
+                // compare ascii characters byte by byte, without decoding
+                int i = 0;
+                while (i < len && start + i < end && name.charAt(i) < 0x80 && mData[start + i] == name.charAt(i)) i++;
+                if (i == len) return start + len == end;
+                if (name.charAt(i) < 0x80) return false;
+            }
+            // escaped or non-ascii names
+            return name.equals(string(t));
+        }
+
+        String string(int t) {
+            final int type = mTokens[t * SIZE], start = mTokens[t * SIZE + 1], end = mTokens[t * SIZE + 2];
+            switch (type & ~ESCAPED) {
+                case STRING:
+                    final String s = new String(mData, start, end - start, UTF_8);
+                    return (type & ESCAPED) == 0 ? s : unescape(s);
+                case NULL:
+                    return null;
+                default:
+                    return raw(t);
+            }
+        }
+
+        String raw(int t) {
+            int start = mTokens[t * SIZE + 1], end = mTokens[t * SIZE + 2];
+            if (type(t) == STRING) {
+                start--;
+                end++;
+            }
+            return new String(mData, start, end - start, UTF_8);
+        }
+
+        long number(int t, long fallback) {
+            final int type = type(t);
+            if (type == NUMBER || type == STRING) {
+                final int start = mTokens[t * SIZE + 1], end = mTokens[t * SIZE + 2];
+                final boolean negative = end > start && mData[start] == '-';
+                if (end - start < 19) {
+                    long value = 0;
+                    int i = negative ? start + 1 : start;
+                    for (; i < end && mData[i] >= '0' && mData[i] <= '9'; i++) value = value * 10 + (mData[i] - '0');
+                    if (i == end && end > (negative ? start + 1 : start)) return negative ? -value : value;
+                }
+                final double d = decimal(t, Double.NaN);
+                return Double.isNaN(d) ? fallback : (long) d;
+            } else {
+                return fallback;
+            }
+        }
+
+        double decimal(int t, double fallback) {
+            final int type = type(t);
+            if (type == NUMBER || type == STRING) {
+                try {
+                    return Double.parseDouble(string(t));
+                } catch (NumberFormatException e) {
+                    return fallback;
+                }
+            } else {
+                return fallback;
+            }
+        }
+
+        boolean bool(int t, boolean fallback) {
+            switch (type(t)) {
+                case BOOLEAN: return mData[mTokens[t * SIZE + 1]] == 't';
+                case STRING:
+                    final String s = string(t);
+                    return "true".equals(s) || (fallback && !"false".equals(s));
+                default:      return fallback;
+            }
+        }
+
+        private int parseValue(int pos, int depth) throws IOException {
+            switch (byteAt(pos)) {
+                case '{': return parseContainer(pos, OBJECT, '}', depth + 1);
+                case '[': return parseContainer(pos, ARRAY, ']', depth + 1);
+                case '"': return parseString(pos);
+                case 't': return parseLiteral(pos, "true", BOOLEAN);
+                case 'f': return parseLiteral(pos, "false", BOOLEAN);
+                case 'n': return parseLiteral(pos, "null", NULL);
+                default:  return parseNumber(pos);
+            }
+        }
+
+        private int parseContainer(int pos, int type, char close, int depth) throws IOException {
+            if (depth > MAX_DEPTH) throw error("nested too deeply", pos);
+            final int t = add(type, pos, pos);
+            pos = skipWhitespace(pos + 1);
+            if (byteAt(pos) != close) {
+                while (true) {
+                    if (type == OBJECT) {
+                        if (byteAt(pos) != '"') throw error("expected name", pos);
+                        pos = skipWhitespace(parseString(pos));
+                        if (byteAt(pos) != ':') throw error("expected ':'", pos);
+                        pos = skipWhitespace(pos + 1);
+                    }
+                    pos = skipWhitespace(parseValue(pos, depth));
+                    final byte b = byteAt(pos);
+                    if (b == close) break;
+                    if (b != ',') throw error("expected ',' or '" + close + "'", pos);
+                    pos = skipWhitespace(pos + 1);
+                }
+            }
+            mTokens[t * SIZE + 2] = pos + 1;
+            mTokens[t * SIZE + 3] = mCount;
+            return pos + 1;
+        }
+
+        private int parseString(int pos) throws IOException {
+            int type = STRING;
+            int p = pos + 1;
+            byte b;
+            while ((b = byteAt(p)) != '"') {
+                if (b == '\\') {
+                    type |= ESCAPED;
+                    p++;
+                    byteAt(p);
+                }
+                p++;
+            }
+            add(type, pos + 1, p);
+            return p + 1;
+        }
+
+        private int parseLiteral(int pos, String literal, int type) throws IOException {
+            for (int i = 0; i < literal.length(); i++) {
+                if (byteAt(pos + i) != literal.charAt(i)) throw error("expected " + literal, pos);
+            }
+            add(type, pos, pos + literal.length());
+            return pos + literal.length();
+        }
+
+        private int parseNumber(int pos) throws IOException {
+            int p = pos;
+            while (p < mLimit && isNumberByte(mData[p])) p++;
+            if (p == pos) throw error("unexpected character", pos);
+            add(NUMBER, pos, p);
+            return p;
+        }
+
+        private int add(int type, int start, int end) {
+            if (mCount * SIZE == mTokens.length) {
+                final int[] tokens = new int[mTokens.length * 2];
+                System.arraycopy(mTokens, 0, tokens, 0, mTokens.length);
+                mTokens = tokens;
+            }
+            final int i = mCount * SIZE;
+            mTokens[i] = type;
+            mTokens[i + 1] = start;
+            mTokens[i + 2] = end;
+            mTokens[i + 3] = mCount + 1;
+            return mCount++;
+        }
+
+        private byte byteAt(int pos) throws IOException {
+            if (pos >= mLimit) throw error("unexpected end of document", pos);
+            return mData[pos];
+        }
+
+        private int skipWhitespace(int pos) {
+            while (pos < mLimit && (mData[pos] == ' ' || mData[pos] == '\n' || mData[pos] == '\r' ||
+                    mData[pos] == '\t')) pos++;
+            return pos;
+        }
+
+        private static boolean isNumberByte(byte b) {
+            return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+        }
+
+        private static String unescape(String s) {
+            final StringBuilder sb = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '\\' && i + 1 < s.length()) {
+                    c = s.charAt(++i);
+                    switch (c) {
+                        case 'b': c = '\b'; break;
+                        case 'f': c = '\f'; break;
+                        case 'n': c = '\n'; break;
+                        case 'r': c = '\r'; break;
+                        case 't': c = '\t'; break;
+                        case 'u':
+                            if (i + 4 < s.length()) {
+                                try {
+                                    c = (char) Integer.parseInt(s.substring(i + 1, i + 5), 16);
+                                    i += 4;
+                                } catch (NumberFormatException ignored) {
+                                }
+                            }
+                            break;
+                    }
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+
+        private static IOException error(String message, int pos) {
+            return new IOException("could not parse JSON document: " + message + " at " + pos);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.soundcloud.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in-memory {@link TokenStore}, backed by a {@link ConcurrentHashMap}, so lookups never block
+ * and updates of different users rarely contend.
+ *
+ * Each entry costs one map entry plus a copy of the token. Scope strings, which are the same for
+ * most tokens, are shared between entries.
+ */
+public class MemoryTokenStore implements TokenStore {
+    /** Default concurrency level, see {@link #MemoryTokenStore(int, int)} */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 64;
+
+    private final ConcurrentMap<String, Token> mTokens;
+    private final ConcurrentMap<String, String> mScopes = new ConcurrentHashMap<String, String>();
+
+    public MemoryTokenStore() {
+        this(16, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param expectedUsers    the expected number of users, used to size the store up front
+     * @param concurrencyLevel the expected number of concurrently updating threads, passed on to
+     *                         {@link ConcurrentHashMap} as a sizing hint (newer JVMs lock per bin
+     *                         and ignore it)
+     */
+    public MemoryTokenStore(int expectedUsers, int concurrencyLevel) {
+        if (expectedUsers < 0) throw new IllegalArgumentException("invalid size: " + expectedUsers);
+        if (concurrencyLevel <= 0) throw new IllegalArgumentException("invalid concurrency level: " + concurrencyLevel);
+        mTokens = new ConcurrentHashMap<String, Token>(expectedUsers * 4 / 3 + 1, 0.75f, concurrencyLevel);
+    }
+
+    @Override public Token get(String user) {
+        return mTokens.get(user);
+    }
+
+    /**
+     * Stores a copy of the token, later changes to the given token are not reflected.
+     * @param user  the user
+     * @param token the token, or null to remove the user
+     */
+    @Override public void put(String user, Token token) {
+        if (user == null) throw new IllegalArgumentException("user is null");
+        if (token == null) {
+            mTokens.remove(user);
+        } else {
+            final Token copy = new Token(token.access, token.refresh,
+                    token.scope == null ? null : canonicalScope(token.scope));
+            copy.expiresIn = token.expiresIn;
+            mTokens.put(user, copy);
+        }
+    }
+
+    @Override public Token remove(String user) {
+        return mTokens.remove(user);
+    }
+
+    /** @return the number of stored tokens */
+    public int size() {
+        return mTokens.size();
+    }
+
+    /** Removes all tokens */
+    public void clear() {
+        mTokens.clear();
+    }
+
+    private String canonicalScope(String scope) {
+        final String existing = mScopes.putIfAbsent(scope, scope);
+        return existing == null ? scope : existing;
+    }
+}
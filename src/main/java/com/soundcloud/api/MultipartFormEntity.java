@@ -0,0 +1,136 @@
+package com.soundcloud.api;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A <code>multipart/form-data</code> entity, producing the same output as httpmime's
+ * <code>MultipartEntity</code>, with header values encoded as UTF-8.
+ *
+ * The part headers are encoded when a part is added, so the exact content length is known
+ * up front, and the part bodies (files, buffers) are only read while writing. As long as all
+ * parts have a known length and are not streams the entity can be written any number of
+ * times, e.g. when the request is retried after an authentication challenge or a redirect.
+ * With a part of unknown length the entity is sent chunked.
+ */
+class MultipartFormEntity extends AbstractHttpEntity {
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final char[] BOUNDARY_CHARS =
+            "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    private static final Random RANDOM = new Random();
+
+    private final String mBoundary;
+    private final List<byte[]> mHeaders = new ArrayList<byte[]>();
+    private final List<AbstractContentBody> mBodies = new ArrayList<AbstractContentBody>();
+    private final byte[] mClosing;
+    private long mContentLength;
+    private boolean mRepeatable = true;
+
+    MultipartFormEntity() {
+        this(generateBoundary());
+    }
+
+    MultipartFormEntity(String boundary) {
+        mBoundary = boundary;
+        mClosing = utf8("--" + boundary + "--\r\n");
+        mContentLength = mClosing.length;
+        setContentType("multipart/form-data; boundary=" + boundary);
+    }
+
+    private static String generateBoundary() {
+        final int length = 30 + RANDOM.nextInt(11);
+        final char[] boundary = new char[length];
+        for (int i = 0; i < length; i++) {
+            boundary[i] = BOUNDARY_CHARS[RANDOM.nextInt(BOUNDARY_CHARS.length)];
+        }
+        return new String(boundary);
+    }
+
+    String getBoundary() {
+        return mBoundary;
+    }
+
+    /**
+     * @param name the name of the form field
+     * @param body the content, written when the entity is written
+     */
+    void addPart(String name, AbstractContentBody body) {
+        final StringBuilder sb = new StringBuilder(128)
+                .append("--").append(mBoundary).append("\r\n")
+                .append("Content-Disposition: form-data; name=\"").append(name).append('"');
+        if (body.getFilename() != null) {
+            sb.append("; filename=\"").append(body.getFilename()).append('"');
+        }
+        sb.append("\r\n");
+        if (body.getMimeType() != null) {
+            sb.append("Content-Type: ").append(body.getMimeType());
+            if (body.getCharset() != null) sb.append("; charset=").append(body.getCharset());
+            sb.append("\r\n");
+        }
+        if (body.getTransferEncoding() != null) {
+            sb.append("Content-Transfer-Encoding: ").append(body.getTransferEncoding()).append("\r\n");
+        }
+        sb.append("\r\n");
+
+        final byte[] header = utf8(sb.toString());
+        mHeaders.add(header);
+        mBodies.add(body);
+
+        // streams can only be read once
+        if (Request.isStream(body)) mRepeatable = false;
+
+        final long length = body.getContentLength();
+        if (length < 0 || mContentLength < 0) {
+            mContentLength = -1;
+        } else {
+            mContentLength += header.length + length + CRLF.length;
+        }
+    }
+
+    @Override public boolean isRepeatable() {
+        return mRepeatable && mContentLength >= 0;
+    }
+
+    @Override public boolean isChunked() {
+        return mContentLength < 0;
+    }
+
+    @Override public boolean isStreaming() {
+        return !isRepeatable();
+    }
+
+    @Override public long getContentLength() {
+        return mContentLength;
+    }
+
+    @Override public InputStream getContent() throws IOException {
+        throw new UnsupportedOperationException("Multipart form entity does not implement #getContent()");
+    }
+
+    @Override public void writeTo(OutputStream out) throws IOException {
+        if (out == null) throw new IllegalArgumentException("Output stream may not be null");
+        for (int i = 0; i < mBodies.size(); i++) {
+            out.write(mHeaders.get(i));
+            mBodies.get(i).writeTo(out);
+            out.write(CRLF);
+        }
+        out.write(mClosing);
+        out.flush();
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
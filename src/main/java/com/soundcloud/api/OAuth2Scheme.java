@@ -26,12 +26,16 @@ import java.util.regex.Pattern;
 class OAuth2Scheme implements AuthScheme {
     public HashMap<String, String> mParams;
     public HttpParams mHttpParams;
-    private CloudAPI mApi;
+    private TokenRefresher mRefresher;
 
     public static Pattern AUTHORIZATION_HEADER_PATTERN = Pattern.compile("^OAuth (\\w+)$");
 
     public OAuth2Scheme(CloudAPI api, HttpParams params) {
-        mApi = api;
+        this(new TokenRefresher(api), params);
+    }
+
+    OAuth2Scheme(TokenRefresher refresher, HttpParams params) {
+        mRefresher = refresher;
         mHttpParams = params;
         mParams = new HashMap<String, String>();
     }
@@ -59,22 +63,16 @@ class OAuth2Scheme implements AuthScheme {
     @Override public Header authenticate(Credentials credentials, HttpRequest request)
             throws AuthenticationException {
         final String usedToken = extractToken(request);
-        // make sure only one refresh request gets sent out
-        synchronized (OAuth2Scheme.class) {
-            final Token apiToken = mApi.getToken();
-            if (apiToken == null || apiToken.access == null || apiToken.access.equals(usedToken)) {
-                if (mApi.invalidateToken() == null) {
-                    // we actually need to refresh it ourselves
-                    try {
-                        mApi.refreshToken();
-                    } catch (IOException e) {
-                        throw new AuthenticationException("Error refreshing token", e);
-                    } catch (IllegalStateException e) {
-                        throw new AuthenticationException("Error refreshing token", e);
-                    }
-                }
-            }
-            return ApiWrapper.createOAuthHeader(mApi.getToken());
+        final String user = extractUser(request);
+        // concurrent requests with the same token share one refresh
+        try {
+            return ApiWrapper.createOAuthHeader(user == null ?
+                    mRefresher.refresh(usedToken) :
+                    mRefresher.refresh(user, usedToken));
+        } catch (IOException e) {
+            throw new AuthenticationException("Error refreshing token", e);
+        } catch (IllegalStateException e) {
+            throw new AuthenticationException("Error refreshing token", e);
         }
     }
 
@@ -128,6 +126,13 @@ class OAuth2Scheme implements AuthScheme {
         return (r == null) ? null : extractToken(r.getFirstHeader(AUTH.WWW_AUTH_RESP));
     }
 
+    /** @return the user the request was made for, see {@link Request#onBehalfOf(String)} */
+    static String extractUser(HttpRequest r) {
+        if (r == null || r.getParams() == null) return null;
+        final Object user = r.getParams().getParameter(Request.USER_PARAM);
+        return user instanceof String ? (String) user : null;
+    }
+
     static String extractToken(Header h) {
         if (h ==null || h.getValue() == null) return null;
         if (AUTH.WWW_AUTH_RESP.equalsIgnoreCase(h.getName())) {
@@ -139,15 +144,19 @@ class OAuth2Scheme implements AuthScheme {
     }
 
     static class Factory implements AuthSchemeFactory {
-        private CloudAPI api;
+        private final TokenRefresher refresher;
 
         public Factory(CloudAPI api) {
-            this.api = api;
+            this(new TokenRefresher(api));
+        }
+
+        Factory(TokenRefresher refresher) {
+            this.refresher = refresher;
         }
 
         @Override
         public AuthScheme newInstance(HttpParams params) {
-            return new OAuth2Scheme(api, params);
+            return new OAuth2Scheme(refresher, params);
         }
     }
 
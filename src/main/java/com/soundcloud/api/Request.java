@@ -1,26 +1,38 @@
 package com.soundcloud.api;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MIME;
-import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.AbstractContentBody;
-import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
-import java.net.URLDecoder;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.rmi.server.UnicastRemoteObject;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -43,15 +55,26 @@ import java.util.Map;
  *  </code>
  */
 public class Request implements Iterable<NameValuePair> {
+    /** Request parameter carrying the user key set with {@link #onBehalfOf(String)} */
+    static final String USER_PARAM = "com.soundcloud.api.user";
+    /** A reasonable minimum time between two progress notifications updating a UI, in milliseconds */
+    public static final long DEFAULT_PROGRESS_INTERVAL = 100;
+
     private List<NameValuePair> mParams = new ArrayList<NameValuePair>(); // XXX should probably be lazy
     private Map<String, File> mFiles;
     private Map<String, ByteBuffer> mByteBuffers;
+    private Map<String, InputStreamBody> mStreams;
+    private Map<String, List<MessageDigest>> mDigests;
     private HttpEntity mEntity;
 
     private Token mToken;
+    private String mUser;
     private String mResource;
     private TransferProgressListener listener;
+    private long mProgressBytes, mProgressInterval;
+    private BandwidthLimiter mLimiter;
     private String mIfNoneMatch;
+    private List<Header> mHeaders;
 
     /** Empty request */
     public Request() {}
@@ -60,20 +83,10 @@ public class Request implements Iterable<NameValuePair> {
      * @param resource the base resource
      */
     public Request(String resource) {
-        if (resource != null && resource.contains("?")) {
-            String query = resource.substring(Math.min(resource.length(), resource.indexOf("?")+1),
-                    resource.length());
-            for (String s : query.split("&")) {
-                String[] kv = s.split("=", 2);
-                if (kv != null && kv.length == 2) {
-                    try {
-                        mParams.add(new BasicNameValuePair(
-                                URLDecoder.decode(kv[0], "UTF-8"),
-                                URLDecoder.decode(kv[1], "UTF-8")));
-                    } catch (UnsupportedEncodingException ignored) {}
-                }
-            }
-            mResource = resource.substring(0, resource.indexOf("?"));
+        final int query = resource == null ? -1 : resource.indexOf('?');
+        if (query != -1) {
+            parseQuery(resource, query + 1);
+            mResource = resource.substring(0, query);
         } else {
             mResource = resource;
         }
@@ -84,8 +97,72 @@ public class Request implements Iterable<NameValuePair> {
      * @param uri - the uri
      */
     public Request(URI uri) {
+        // the raw query, the parameters get decoded exactly once
         this(uri.getPath() == null ? "/" : uri.getPath() +
-            (uri.getQuery() == null ? "" : "?"+uri.getQuery()));
+            (uri.getRawQuery() == null ? "" : "?"+uri.getRawQuery()));
+    }
+
+    /**
+     * Adds the parameters of a query string, in a single pass. Parameters without '=' are
+     * ignored, names and values are only copied when they need decoding.
+     * @throws IllegalArgumentException malformed escape sequence
+     */
+    private void parseQuery(String s, int start) {
+        final int end = s.length();
+        int pos = start;
+        while (pos < end) {
+            int separator = -1, next = pos;
+            for (char c; next < end && (c = s.charAt(next)) != '&'; next++) {
+                if (c == '=' && separator == -1) separator = next;
+            }
+            if (separator != -1) {
+                mParams.add(new BasicNameValuePair(decode(s, pos, separator), decode(s, separator + 1, next)));
+            }
+            pos = next + 1;
+        }
+    }
+
+    /**
+     * Decodes <code>application/x-www-form-urlencoded</code> text like
+     * {@link java.net.URLDecoder#decode(String, String)} with UTF-8.
+     */
+    static String decode(String s, int from, int to) {
+        int i = from;
+        while (i < to && s.charAt(i) != '%' && s.charAt(i) != '+') i++;
+        if (i == to) return s.substring(from, to);
+
+        final StringBuilder sb = new StringBuilder(to - from);
+        sb.append(s, from, i);
+        byte[] bytes = null;
+        while (i < to) {
+            final char c = s.charAt(i);
+            if (c == '+') {
+                sb.append(' ');
+                i++;
+            } else if (c == '%') {
+                if (bytes == null) bytes = new byte[(to - i) / 3];
+                int n = 0;
+                while (i + 2 < to && s.charAt(i) == '%') {
+                    // like Integer.parseInt(.., 16) in URLDecoder, which accepts a leading '+'
+                    final char h = s.charAt(i + 1);
+                    final int hi = h == '+' ? 0 : Character.digit(h, 16), lo = Character.digit(s.charAt(i + 2), 16);
+                    if (hi == -1 || lo == -1) {
+                        throw new IllegalArgumentException("Illegal hex characters in escape (%) pattern: " +
+                                s.substring(i, i + 3));
+                    }
+                    bytes[n++] = (byte) ((hi << 4) | lo);
+                    i += 3;
+                }
+                if (i < to && s.charAt(i) == '%') {
+                    throw new IllegalArgumentException("Incomplete trailing escape (%) pattern");
+                }
+                sb.append(new String(bytes, 0, n, Http.DEFAULT_CHARSET));
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
     }
 
     /**
@@ -94,10 +171,19 @@ public class Request implements Iterable<NameValuePair> {
     public Request(Request request) {
         mResource = request.mResource;
         mToken = request.mToken;
+        mUser = request.mUser;
         listener = request.listener;
+        mProgressBytes = request.mProgressBytes;
+        mProgressInterval = request.mProgressInterval;
+        mLimiter = request.mLimiter;
         mParams = new ArrayList<NameValuePair>(request.mParams);
         mIfNoneMatch = request.mIfNoneMatch;
+        if (request.mHeaders != null) mHeaders = new ArrayList<Header>(request.mHeaders);
         if (request.mFiles != null) mFiles = new HashMap<String, File>(request.mFiles);
+        if (request.mByteBuffers != null) mByteBuffers = new HashMap<String, ByteBuffer>(request.mByteBuffers);
+        if (request.mStreams != null) mStreams = new HashMap<String, InputStreamBody>(request.mStreams);
+        if (request.mDigests != null) mDigests = new HashMap<String, List<MessageDigest>>(request.mDigests);
+        mEntity = request.mEntity;
     }
 
     /**
@@ -110,11 +196,32 @@ public class Request implements Iterable<NameValuePair> {
     public static Request to(String resource, Object... args) {
         if (args != null &&
             args.length > 0) {
-            resource = String.format(resource, args);
+            // common templates (%d, %s) are parsed once and cached
+            final UriTemplate template = UriTemplate.cached(resource);
+            resource = template != null ? template.expand(args) : String.format(resource, args);
         }
         return new Request(resource);
     }
 
+    /**
+     * @param template  the resource template, e.g. {@link Endpoints.Templates#TRACK_DETAILS}
+     * @param id        the id to expand the template with
+     * @return the request
+     */
+    public static Request to(UriTemplate template, long id) {
+        return new Request(template.expand(id));
+    }
+
+    /**
+     * @param template  the resource template
+     * @param args      the expansion arguments
+     * @return the request
+     * @throws java.util.IllegalFormatException - If the arguments don't match the template
+     */
+    public static Request to(UriTemplate template, Object... args) {
+        return new Request(template.expand(args));
+    }
+
     /**
      * Adds a key value pair
      * @param name  the name
@@ -150,6 +257,19 @@ public class Request implements Iterable<NameValuePair> {
         return this;
     }
 
+    /**
+     * The request should be made with the token of the given user, looked up in the
+     * {@link TokenStore} of the wrapper. If the token turns out to be invalid it will be
+     * refreshed and updated in the store.
+     * @param user the user key
+     * @return this
+     * @see ApiWrapper#setTokenStore(TokenStore)
+     */
+    public Request onBehalfOf(String user) {
+        mUser = user;
+        return this;
+    }
+
     /** @return the size of the parameters */
     public int size() {
         return mParams.size();
@@ -202,7 +322,11 @@ public class Request implements Iterable<NameValuePair> {
     }
 
     /**
-     * Registers binary data to be uploaded with a POST or PUT request.
+     * Registers binary data to be uploaded with a POST or PUT request. The bytes between the
+     * position and the limit of the buffer are sent, the buffer itself is not modified.
+     * Slices of larger buffers and memory-mapped files
+     * (<code>channel.map(FileChannel.MapMode.READ_ONLY, offset, length)</code>) are uploaded
+     * without copying them onto the heap.
      * @param name  the name of the parameter
      * @param data  the data to be submitted
      * @return this
@@ -213,6 +337,55 @@ public class Request implements Iterable<NameValuePair> {
         return this;
     }
 
+    /**
+     * Registers data to be streamed with a POST or PUT request, e.g. generated on the fly. If
+     * the length is not known the request is sent with chunked transfer encoding. The data is
+     * never buffered as a whole, which also means the request can only be sent once: it is not
+     * retried (e.g. after an authentication challenge), and the stream is not closed.
+     * @param name   the name of the parameter
+     * @param in     the data to be submitted
+     * @param length the number of bytes to read from the stream, or -1 to read until the end
+     * @return this
+     */
+    public Request withFile(String name, InputStream in, long length) {
+        if (length < -1) throw new IllegalArgumentException("invalid length: " + length);
+        if (mStreams == null) mStreams = new HashMap<String, InputStreamBody>();
+        if (in != null) mStreams.put(name, new InputStreamBody(in, length));
+        return this;
+    }
+
+    /**
+     * Computes a digest of a file part while it is uploaded, so the file doesn't have to be
+     * read a second time. The digest is reset whenever the part is written, after the request
+     * completed it holds the digest of the content sent:
+     * <code>
+     *     <pre>
+     * MessageDigest md5 = MessageDigest.getInstance("MD5");
+     * wrapper.post(Request.to(Endpoints.TRACKS)
+     *                     .withFile(Params.Track.ASSET_DATA, file)
+     *                     .withDigest(Params.Track.ASSET_DATA, md5));
+     * byte[] hash = md5.digest();
+     *     </pre>
+     * </code>
+     * @param name   the name of the file part, any number of digests can be added per part
+     * @param digest the digest to update
+     * @return this
+     */
+    public Request withDigest(String name, MessageDigest digest) {
+        if (digest == null) throw new IllegalArgumentException("digest is null");
+        if (mDigests == null) mDigests = new HashMap<String, List<MessageDigest>>();
+        List<MessageDigest> digests = mDigests.get(name);
+        if (digests == null) {
+            digests = new ArrayList<MessageDigest>(2);
+        } else {
+            // copies of this request share the list
+            digests = new ArrayList<MessageDigest>(digests);
+        }
+        digests.add(digest);
+        mDigests.put(name, digests);
+        return this;
+    }
+
     /**
      * Adds an arbitrary entity to the request (used with POST/PUT)
      * @param entity the entity to POST/PUT
@@ -250,9 +423,54 @@ public class Request implements Iterable<NameValuePair> {
         return this;
     }
 
+    /**
+     * Limits how often the progress listener is notified. A notification is sent once both
+     * limits are reached, and when the transfer completes. By default (0 for both) the listener
+     * is notified of every write.
+     * @param bytes  minimum number of bytes transferred between two notifications
+     * @param millis minimum time between two notifications, e.g. {@link #DEFAULT_PROGRESS_INTERVAL}
+     * @return this
+     */
+    public Request setProgressGranularity(long bytes, long millis) {
+        if (bytes < 0 || millis < 0) throw new IllegalArgumentException("invalid granularity");
+        mProgressBytes = bytes;
+        mProgressInterval = millis;
+        return this;
+    }
+
+    /**
+     * Limits the rate at which the body of this request is sent. Applies in addition to the
+     * limiter of the wrapper, see {@link ApiWrapper#setBandwidthLimiter(BandwidthLimiter)}.
+     * @param limiter the limiter, or null
+     * @return this
+     */
+    public Request setBandwidthLimiter(BandwidthLimiter limiter) {
+        mLimiter = limiter;
+        return this;
+    }
+
     public boolean isMultipart() {
         return (mFiles != null && !mFiles.isEmpty()) ||
-               (mByteBuffers != null && !mByteBuffers.isEmpty());
+               (mByteBuffers != null && !mByteBuffers.isEmpty()) ||
+               (mStreams != null && !mStreams.isEmpty());
+    }
+
+    /**
+     * Sets an additional header, replacing previously set headers with the same name.
+     * @param name  the header name, e.g. <code>Content-Range</code>
+     * @param value the value, or null to remove the header
+     * @return this
+     */
+    public Request withHeader(String name, String value) {
+        if (mHeaders == null) {
+            if (value == null) return this;
+            mHeaders = new ArrayList<Header>(2);
+        }
+        for (Iterator<Header> it = mHeaders.iterator(); it.hasNext(); ) {
+            if (it.next().getName().equalsIgnoreCase(name)) it.remove();
+        }
+        if (value != null) mHeaders.add(new BasicHeader(name, value));
+        return this;
     }
 
     /**
@@ -273,24 +491,30 @@ public class Request implements Iterable<NameValuePair> {
      */
     public <T extends HttpRequestBase> T buildRequest(Class<T> method) {
         try {
-            T request = method.newInstance();
+            T request = newRequest(method);
             // POST/PUT ?
             if (request instanceof HttpEntityEnclosingRequestBase) {
                 HttpEntityEnclosingRequestBase enclosingRequest =
                         (HttpEntityEnclosingRequestBase) request;
 
                 if (isMultipart()) {
-                    MultipartEntity multiPart = new MultipartEntity();
+                    MultipartFormEntity multiPart = new MultipartFormEntity();
 
                     if (mFiles != null) {
                         for (Map.Entry<String,File> e : mFiles.entrySet()) {
-                            multiPart.addPart(e.getKey(), new FileBody(e.getValue()));
+                            multiPart.addPart(e.getKey(), digested(e.getKey(), new FileChannelBody(e.getValue())));
                         }
                     }
 
                     if (mByteBuffers != null) {
                         for (Map.Entry<String, ByteBuffer> e : mByteBuffers.entrySet()) {
-                            multiPart.addPart(e.getKey(), new ByteBufferBody(e.getValue()));
+                            multiPart.addPart(e.getKey(), digested(e.getKey(), new ByteBufferBody(e.getValue())));
+                        }
+                    }
+
+                    if (mStreams != null) {
+                        for (Map.Entry<String, InputStreamBody> e : mStreams.entrySet()) {
+                            multiPart.addPart(e.getKey(), digested(e.getKey(), e.getValue()));
                         }
                     }
 
@@ -299,16 +523,19 @@ public class Request implements Iterable<NameValuePair> {
                     }
 
                     enclosingRequest.setEntity(listener == null ? multiPart :
-                        new CountingMultipartEntity(multiPart, listener));
+                        new CountingMultipartEntity(multiPart, listener, mProgressBytes, mProgressInterval));
                 // form-urlencoded?
                 } else if (!mParams.isEmpty()) {
-                    request.setHeader("Content-Type", "application/x-www-form-urlencoded");
-                    enclosingRequest.setEntity(new StringEntity(queryString()));
+                    request.setHeader("Content-Type", FormEntity.CONTENT_TYPE);
+                    enclosingRequest.setEntity(new FormEntity(new ArrayList<NameValuePair>(mParams)));
                 } else if (mEntity != null) {
                     request.setHeader(mEntity.getContentType());
                     enclosingRequest.setEntity(mEntity);
                 }
 
+                if (mLimiter != null && enclosingRequest.getEntity() != null) {
+                    enclosingRequest.setEntity(new ThrottledEntity(enclosingRequest.getEntity(), mLimiter));
+                }
                 request.setURI(URI.create(mResource));
             } else { // just plain GET/DELETE/...
                 if (mIfNoneMatch != null) {
@@ -317,9 +544,15 @@ public class Request implements Iterable<NameValuePair> {
                 request.setURI(URI.create(toUrl()));
             }
 
+            if (mHeaders != null) {
+                for (Header header : mHeaders) request.setHeader(header);
+            }
             if (mToken != null) {
                 request.addHeader(ApiWrapper.createOAuthHeader(mToken));
             }
+            if (mUser != null) {
+                request.getParams().setParameter(USER_PARAM, mUser);
+            }
             return request;
         } catch (InstantiationException e) {
             throw new RuntimeException(e);
@@ -331,6 +564,37 @@ public class Request implements Iterable<NameValuePair> {
         }
     }
 
+    private AbstractContentBody digested(String name, AbstractContentBody body) {
+        final List<MessageDigest> digests = mDigests == null ? null : mDigests.get(name);
+        return digests == null ? body : new DigestBody(body, digests);
+    }
+
+    /** @return true if the part is read from a stream, and can only be written once */
+    static boolean isStream(AbstractContentBody body) {
+        return body instanceof InputStreamBody ||
+               (body instanceof DigestBody && isStream(((DigestBody) body).mDelegate));
+    }
+
+    /** Creates the common request types directly, only falls back to reflection for others */
+    private static <T extends HttpRequestBase> T newRequest(Class<T> method)
+            throws IllegalAccessException, InstantiationException {
+        if (method == HttpGet.class)         return method.cast(new HttpGet());
+        else if (method == HttpPost.class)   return method.cast(new HttpPost());
+        else if (method == HttpPut.class)    return method.cast(new HttpPut());
+        else if (method == HttpDelete.class) return method.cast(new HttpDelete());
+        else if (method == HttpHead.class)   return method.cast(new HttpHead());
+        else {
+            // Class#newInstance is deprecated, it rethrows checked constructor exceptions unchecked
+            try {
+                return method.getDeclaredConstructor().newInstance();
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException(e);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
     @Override public Iterator<NameValuePair> iterator() {
         return mParams.iterator();
     }
@@ -351,10 +615,47 @@ public class Request implements Iterable<NameValuePair> {
         return mToken;
     }
 
+    /* package */ String getUser() {
+        return mUser;
+    }
+
     /* package */ TransferProgressListener getListener() {
         return listener;
     }
 
+    /**
+     * @return the size of the body content (files, buffers, streams, form or entity), without
+     *         building the body or the multipart framing, or -1 if not known up front
+     */
+    /* package */ long getContentLength() {
+        if (isMultipart()) {
+            long length = 0;
+            if (mFiles != null) {
+                for (File f : mFiles.values()) length += f.length();
+            }
+            if (mByteBuffers != null) {
+                for (ByteBuffer b : mByteBuffers.values()) length += b.remaining();
+            }
+            if (mStreams != null) {
+                for (InputStreamBody body : mStreams.values()) {
+                    if (body.getContentLength() < 0) return -1;
+                    length += body.getContentLength();
+                }
+            }
+            return length;
+        } else if (!mParams.isEmpty()) {
+            return new FormEntity(mParams).getContentLength();
+        } else {
+            return mEntity == null ? 0 : mEntity.getContentLength();
+        }
+    }
+
+    /** @return whether the body can be sent more than once, streams can only be read once */
+    /* package */ boolean isRepeatable() {
+        if (mStreams != null && !mStreams.isEmpty()) return false;
+        return isMultipart() || !mParams.isEmpty() || mEntity == null || mEntity.isRepeatable();
+    }
+
 
     /**
      * Updates about the amount of bytes already transferred.
@@ -367,6 +668,81 @@ public class Request implements Iterable<NameValuePair> {
         public void transferred(long amount) throws IOException;
     }
 
+    /**
+     * A progress listener which also gets the throughput and the estimated remaining time.
+     * Multipart uploads call {@link #progress(TransferProgress)} instead of
+     * {@link #transferred(long)}, which is only used where just the byte count is known.
+     */
+    public static interface ThroughputListener extends TransferProgressListener {
+        /**
+         * @param progress the state of the transfer, reused for all notifications of a transfer
+         * @throws IOException if the transfer should be cancelled
+         */
+        public void progress(TransferProgress progress) throws IOException;
+    }
+
+    /**
+     * The state of a transfer, passed to {@link ThroughputListener}s.
+     */
+    public static final class TransferProgress {
+        private long mTransferred, mTotal, mElapsed, mBytesPerSecond, mAverageBytesPerSecond, mEta;
+
+        /** @param total the size of the transfer, or -1 if not known */
+        TransferProgress(long total) {
+            mTotal = total;
+        }
+
+        /** @return number of bytes already transferred */
+        public long getTransferred() {
+            return mTransferred;
+        }
+
+        /** @return the size of the transfer in bytes, or -1 if not known */
+        public long getTotal() {
+            return mTotal;
+        }
+
+        /** @return time since the start of the transfer, in milliseconds */
+        public long getElapsed() {
+            return mElapsed;
+        }
+
+        /** @return throughput since the previous notification, in bytes per second */
+        public long getBytesPerSecond() {
+            return mBytesPerSecond;
+        }
+
+        /** @return throughput since the start of the transfer, in bytes per second */
+        public long getAverageBytesPerSecond() {
+            return mAverageBytesPerSecond;
+        }
+
+        /** @return estimated remaining time at the average throughput in milliseconds, or -1 if not known */
+        public long getEta() {
+            return mEta;
+        }
+
+        void update(long transferred, long delta, long deltaNanos, long elapsedNanos) {
+            mTransferred = transferred;
+            mElapsed = elapsedNanos / 1000000;
+            mBytesPerSecond = deltaNanos <= 0 ? 0 : (long) (delta * 1e9 / deltaNanos);
+            mAverageBytesPerSecond = elapsedNanos <= 0 ? 0 : (long) (transferred * 1e9 / elapsedNanos);
+            mEta = mTotal < 0 || mAverageBytesPerSecond <= 0 ? -1 :
+                    Math.max(0, mTotal - transferred) * 1000 / mAverageBytesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return "TransferProgress{" +
+                    "transferred=" + mTransferred +
+                    ", total=" + mTotal +
+                    ", bytesPerSecond=" + mBytesPerSecond +
+                    ", averageBytesPerSecond=" + mAverageBytesPerSecond +
+                    ", eta=" + mEta +
+                    '}';
+        }
+    }
+
 
 
     static class StringBodyNoHeaders extends StringBody {
@@ -406,18 +782,191 @@ public class Request implements Iterable<NameValuePair> {
 
         @Override
         public long getContentLength() {
-            return mBuffer.capacity();
+            return mBuffer.remaining();
         }
 
         @Override
         public void writeTo(OutputStream out) throws IOException {
-            if (mBuffer.hasArray()) {
-                out.write(mBuffer.array());
+            // the bytes between position and limit, without touching the position of the original
+            final ByteBuffer src = mBuffer.duplicate();
+            if (src.hasArray()) {
+                out.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
             } else {
-                byte[] dst = new byte[mBuffer.capacity()];
-                mBuffer.get(dst);
-                out.write(dst);
+                // copy direct (and mapped) buffers in chunks
+                final ByteBuffer chunk = BufferPool.HEAP.acquire();
+                try {
+                    while (src.hasRemaining()) {
+                        final int n = Math.min(src.remaining(), chunk.capacity());
+                        src.get(chunk.array(), 0, n);
+                        out.write(chunk.array(), 0, n);
+                    }
+                } finally {
+                    BufferPool.HEAP.release(chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates digests with the content of a part while it is written.
+     */
+    static class DigestBody extends AbstractContentBody {
+        private final AbstractContentBody mDelegate;
+        private final List<MessageDigest> mDigests;
+
+        public DigestBody(AbstractContentBody delegate, List<MessageDigest> digests) {
+            super(delegate.getMimeType());
+            mDelegate = delegate;
+            mDigests = digests;
+        }
+
+        @Override
+        public String getFilename() {
+            return mDelegate.getFilename();
+        }
+
+        public String getTransferEncoding() {
+            return mDelegate.getTransferEncoding();
+        }
+
+        public String getCharset() {
+            return mDelegate.getCharset();
+        }
+
+        @Override
+        public long getContentLength() {
+            return mDelegate.getContentLength();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            OutputStream digesting = out;
+            for (MessageDigest digest : mDigests) {
+                // the part may be written more than once (retries), only the last write counts
+                digest.reset();
+                digesting = new DigestOutputStream(digesting, digest);
+            }
+            mDelegate.writeTo(digesting);
+        }
+    }
+
+    /**
+     * A part read from a stream, which can only be written once.
+     */
+    static class InputStreamBody extends AbstractContentBody {
+        private final InputStream mIn;
+        private final long mLength;
+
+        public InputStreamBody(InputStream in, long length) {
+            super("application/octet-stream");
+            mIn = in;
+            mLength = length;
+        }
+
+        @Override
+        public String getFilename() {
+            return null;
+        }
+
+        public String getTransferEncoding() {
+            return MIME.ENC_BINARY;
+        }
+
+        public String getCharset() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return mLength;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            final ByteBuffer chunk = BufferPool.HEAP.acquire();
+            try {
+                final byte[] buffer = chunk.array();
+                long remaining = mLength < 0 ? Long.MAX_VALUE : mLength;
+                while (remaining > 0) {
+                    final int n = mIn.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n == -1) break;
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+                if (mLength >= 0 && remaining > 0) {
+                    throw new IOException("stream ended after " + (mLength - remaining) + " of " + mLength + " bytes");
+                }
+                out.flush();
+            } finally {
+                BufferPool.HEAP.release(chunk);
+            }
+        }
+    }
+
+    /**
+     * A file part which streams the file with {@link FileChannel#transferTo}, so the file
+     * content is never copied onto the heap as a whole.
+     */
+    static class FileChannelBody extends AbstractContentBody {
+        private final File mFile;
+        /** the length announced in the request, fixed when the part is added */
+        private final long mLength;
+
+        public FileChannelBody(File file) {
+            super("application/octet-stream");
+            mFile = file;
+            mLength = file.length();
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        @Override
+        public String getFilename() {
+            return mFile.getName();
+        }
+
+        public String getTransferEncoding() {
+            return MIME.ENC_BINARY;
+        }
+
+        public String getCharset() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return mLength;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            final FileInputStream in = new FileInputStream(mFile);
+            try {
+                final long written = transfer(in.getChannel(), 0, mLength, out);
+                if (written < mLength) {
+                    throw new IOException(mFile + " was truncated after " + written + " of " + mLength + " bytes");
+                }
+                out.flush();
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Writes a region of a file to the stream.
+         * @return the number of bytes written, less than count if the file was truncated
+         */
+        static long transfer(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+            final WritableByteChannel target = Channels.newChannel(out);
+            long transferred = 0;
+            while (transferred < count) {
+                final long n = channel.transferTo(position + transferred, count - transferred, target);
+                if (n <= 0) break; // truncated while uploading
+                transferred += n;
             }
+            return transferred;
         }
     }
 }
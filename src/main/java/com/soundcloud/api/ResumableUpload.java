@@ -0,0 +1,271 @@
+package com.soundcloud.api;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Properties;
+
+/**
+ * Uploads a file in chunks and records the acknowledged offset in a checkpoint file, so an
+ * interrupted upload (dropped connection, process restart) continues where it stopped instead
+ * of starting over.
+ *
+ * Each chunk is sent with PUT to the resource of the request, with a
+ * <code>Content-Range: bytes first-last/total</code> header. The server acknowledges a chunk
+ * with <code>308 Resume Incomplete</code> or <code>202 Accepted</code>, optionally reporting the
+ * bytes stored so far with <code>Range: bytes=0-last</code>. The last chunk is answered with
+ * <code>200 OK</code> or <code>201 Created</code>. Any other response stops the upload and is
+ * returned to the caller, the checkpoint is kept.
+ *
+ * <code>
+ *     <pre>
+ * ResumableUpload upload = new ResumableUpload(wrapper, Request.to(uploadResource),
+ *                                              file, new File(file.getPath() + ".upload"));
+ * // after an IOException call upload() again, or create a new instance in a new process
+ * HttpResponse resp = upload.upload();
+ *     </pre>
+ * </code>
+ */
+public class ResumableUpload {
+    /** Default chunk size, in bytes */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    /** Status used to acknowledge a chunk of an incomplete upload */
+    public static final int SC_RESUME_INCOMPLETE = 308;
+    /** How many acknowledgements without progress are accepted before giving up */
+    static final int MAX_STALLS = 3;
+
+    static final String RESOURCE = "resource";
+    static final String FILE     = "file";
+    static final String LENGTH   = "length";
+    static final String MODIFIED = "modified";
+    static final String OFFSET   = "offset";
+
+    private final CloudAPI mApi;
+    private final Request mRequest;
+    private final File mFile;
+    private final File mCheckpoint;
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile long mOffset;
+
+    /**
+     * @param api        the api used to send the chunks
+     * @param request    the upload resource, without parameters
+     * @param file       the file to upload
+     * @param checkpoint where the progress is recorded, deleted when the upload completes
+     */
+    public ResumableUpload(CloudAPI api, Request request, File file, File checkpoint) {
+        if (api == null || request == null || file == null || checkpoint == null) {
+            throw new IllegalArgumentException("api, request, file and checkpoint are required");
+        }
+        if (request.size() > 0 || request.isMultipart()) {
+            throw new IllegalArgumentException("chunks are sent as plain content, no parameters: " + request);
+        }
+        mApi = api;
+        mRequest = request;
+        mFile = file;
+        mCheckpoint = checkpoint;
+    }
+
+    /**
+     * @param size the maximum number of bytes sent per request
+     * @return this
+     */
+    public ResumableUpload setChunkSize(int size) {
+        if (size <= 0) throw new IllegalArgumentException("invalid chunk size: " + size);
+        mChunkSize = size;
+        return this;
+    }
+
+    /** @return the number of bytes acknowledged by the server so far */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * Uploads the file, starting at the offset recorded in the checkpoint if it belongs to the
+     * same resource and an unchanged file. The progress listener of the request is notified with
+     * the acknowledged offset after every chunk.
+     *
+     * @return the response to the last chunk, or the first unexpected response
+     * @throws IOException network error, the checkpoint could not be written, or the server does
+     *                     not make progress. The checkpoint is kept, call again to resume.
+     */
+    public HttpResponse upload() throws IOException {
+        if (!mFile.isFile()) throw new FileNotFoundException(mFile.getPath());
+        final long length = mFile.length(), modified = mFile.lastModified();
+        final Request.TransferProgressListener listener = mRequest.getListener();
+
+        long offset = readCheckpoint(length, modified);
+        mOffset = offset;
+        int stalls = 0;
+        for (;;) {
+            final long count = Math.min(mChunkSize, length - offset);
+            final HttpResponse resp = mApi.put(new Request(mRequest)
+                    .withEntity(new FileRegionEntity(mFile, offset, count))
+                    .withHeader("Content-Range", contentRange(offset, count, length)));
+
+            final int status = resp.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_OK || status == HttpStatus.SC_CREATED) {
+                mOffset = length;
+                if (listener != null) listener.transferred(length);
+                mCheckpoint.delete();
+                return resp;
+            } else if (status != SC_RESUME_INCOMPLETE && status != HttpStatus.SC_ACCEPTED) {
+                return resp;
+            }
+            if (resp.getEntity() != null) resp.getEntity().consumeContent();
+
+            final long acknowledged = acknowledged(resp, offset + count);
+            if (acknowledged < 0 || acknowledged > length) {
+                throw new IOException("invalid range acknowledged: " + resp.getFirstHeader("Range"));
+            }
+            stalls = acknowledged == offset ? stalls + 1 : 0;
+            if (stalls >= MAX_STALLS) throw new IOException("upload does not progress at " + offset);
+
+            offset = acknowledged;
+            writeCheckpoint(length, modified, offset);
+            mOffset = offset;
+            if (listener != null) listener.transferred(offset);
+        }
+    }
+
+    static String contentRange(long offset, long count, long length) {
+        return count == 0 ? "bytes */" + length :
+                "bytes " + offset + "-" + (offset + count - 1) + "/" + length;
+    }
+
+    /** @return the offset after the last byte the server reported in the Range header */
+    static long acknowledged(HttpResponse resp, long sent) {
+        final Header range = resp.getFirstHeader("Range");
+        if (range == null) return sent;
+        final String value = range.getValue().trim();
+        final int dash = value.lastIndexOf('-');
+        if (!value.startsWith("bytes=") || dash == -1) return -1;
+        try {
+            return Long.parseLong(value.substring(dash + 1).trim()) + 1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long readCheckpoint(long length, long modified) throws IOException {
+        if (!mCheckpoint.exists()) return 0;
+        final Properties props = new Properties();
+        final FileInputStream in = new FileInputStream(mCheckpoint);
+        try {
+            props.load(in);
+        } catch (IllegalArgumentException e) {
+            return 0;
+        } finally {
+            in.close();
+        }
+        if (!mRequest.toUrl().equals(props.getProperty(RESOURCE)) ||
+            !mFile.getAbsolutePath().equals(props.getProperty(FILE)) ||
+            parseLong(props.getProperty(LENGTH)) != length ||
+            parseLong(props.getProperty(MODIFIED)) != modified) {
+            // a different upload, or the file changed since
+            return 0;
+        }
+        final long offset = parseLong(props.getProperty(OFFSET));
+        return offset < 0 || offset > length ? 0 : offset;
+    }
+
+    private void writeCheckpoint(long length, long modified, long offset) throws IOException {
+        final Properties props = new Properties();
+        props.setProperty(RESOURCE, mRequest.toUrl());
+        props.setProperty(FILE, mFile.getAbsolutePath());
+        props.setProperty(LENGTH, String.valueOf(length));
+        props.setProperty(MODIFIED, String.valueOf(modified));
+        props.setProperty(OFFSET, String.valueOf(offset));
+
+        // createTempFile needs a prefix of at least 3 characters
+        final File tmp = File.createTempFile(mCheckpoint.getName() + ".checkpoint", ".tmp",
+                mCheckpoint.getAbsoluteFile().getParentFile());
+        boolean written = false;
+        try {
+            final FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                props.store(fos, null);
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            // renameTo does not replace existing files on all platforms
+            if (!tmp.renameTo(mCheckpoint) && !(mCheckpoint.delete() && tmp.renameTo(mCheckpoint))) {
+                throw new IOException("could not rename " + tmp + " to " + mCheckpoint);
+            }
+            written = true;
+        } finally {
+            if (!written) tmp.delete();
+        }
+    }
+
+    private static long parseLong(String s) {
+        if (s == null) return -1;
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** A region of a file, written with {@link FileChannel#transferTo} */
+    static class FileRegionEntity extends AbstractHttpEntity {
+        private final File mFile;
+        private final long mOffset, mLength;
+
+        FileRegionEntity(File file, long offset, long length) {
+            mFile = file;
+            mOffset = offset;
+            mLength = length;
+            setContentType("application/octet-stream");
+        }
+
+        @Override public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override public boolean isStreaming() {
+            return false;
+        }
+
+        @Override public long getContentLength() {
+            return mLength;
+        }
+
+        @Override public InputStream getContent() throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) mLength);
+            final FileInputStream in = new FileInputStream(mFile);
+            try {
+                final FileChannel channel = in.getChannel();
+                while (buffer.hasRemaining() && channel.read(buffer, mOffset + buffer.position()) >= 0) ;
+            } finally {
+                in.close();
+            }
+            return new ByteArrayInputStream(buffer.array(), 0, buffer.position());
+        }
+
+        @Override public void writeTo(OutputStream out) throws IOException {
+            final FileInputStream in = new FileInputStream(mFile);
+            try {
+                final long written = Request.FileChannelBody.transfer(in.getChannel(), mOffset, mLength, out);
+                if (written < mLength) throw new IOException(mFile + " was truncated");
+                out.flush();
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
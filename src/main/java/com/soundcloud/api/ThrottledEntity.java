@@ -0,0 +1,52 @@
+package com.soundcloud.api;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Paces the body of a request with a {@link BandwidthLimiter}.
+ */
+class ThrottledEntity extends HttpEntityWrapper {
+    private final BandwidthLimiter mLimiter;
+
+    public ThrottledEntity(HttpEntity delegate, BandwidthLimiter limiter) {
+        super(delegate);
+        mLimiter = limiter;
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        wrappedEntity.writeTo(new ThrottledOutputStream(outstream, mLimiter));
+    }
+
+    /** Writes in slices of at most {@link ApiWrapper#BUFFER_SIZE}, so large writes are paced evenly */
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        private final BandwidthLimiter mLimiter;
+
+        public ThrottledOutputStream(OutputStream out, BandwidthLimiter limiter) {
+            super(out);
+            mLimiter = limiter;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                final int n = Math.min(len, ApiWrapper.BUFFER_SIZE);
+                mLimiter.acquire(n);
+                out.write(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mLimiter.acquire(1);
+            out.write(b);
+        }
+    }
+}
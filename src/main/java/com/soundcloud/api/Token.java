@@ -1,5 +1,8 @@
 package com.soundcloud.api;
 
+import org.apache.http.Header;
+import org.apache.http.auth.AUTH;
+import org.apache.http.message.BasicHeader;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -32,6 +35,9 @@ public class Token implements Serializable {
     public String access, refresh, scope;
     public long expiresIn;
 
+    static final String AUTH_PREFIX = "OAuth ";
+    transient private Header mAuthHeader;
+
     /**
      * Constructs a new token with the given sub-tokens
      * @param access   A token used by the client to make authenticated requests on behalf of the resource owner.
@@ -59,6 +65,8 @@ public class Token implements Serializable {
             if (json.has(REFRESH_TOKEN)) {
                 // refresh token won't be set if we don't expire
                 refresh = json.getString(REFRESH_TOKEN);
+            }
+            if (json.has(EXPIRES_IN)) {
                 expiresIn = System.currentTimeMillis() + json.getLong(EXPIRES_IN) * 1000;
             }
             scope = json.getString(SCOPE);
@@ -89,16 +97,41 @@ public class Token implements Serializable {
     }
 
     public boolean scoped(String scope) {
-        if (this.scope != null) {
-            for (String s : this.scope.split(" "))
-                if (scope.equals(s)) return true;
+        final String scopes = this.scope;
+        if (scopes != null) {
+            // scopes are separated by spaces, compare in place instead of splitting
+            final int length = scope.length();
+            int start = 0;
+            while (start <= scopes.length()) {
+                int end = scopes.indexOf(' ', start);
+                if (end == -1) end = scopes.length();
+                if (end - start == length && scopes.regionMatches(start, scope, 0, length)) return true;
+                start = end + 1;
+            }
         }
         return false;
     }
 
     /** @return is this token valid */
     public boolean valid() {
-        return access != null && (scoped(SCOPE_NON_EXPIRING) || refresh != null);
+        return access != null && (refresh != null || scoped(SCOPE_NON_EXPIRING));
+    }
+
+    /**
+     * @return the authorization header for this token, reused for as long as the access token
+     *         stays the same
+     */
+    Header getAuthHeader() {
+        final String access = this.access;
+        // invalidated by another thread since it was checked
+        if (access == null) return ApiWrapper.INVALIDATED_AUTH_HEADER;
+        Header header = mAuthHeader;
+        if (header == null || !header.getValue().regionMatches(AUTH_PREFIX.length(), access, 0, access.length())
+                || header.getValue().length() != AUTH_PREFIX.length() + access.length()) {
+            header = new BasicHeader(AUTH.WWW_AUTH_RESP, AUTH_PREFIX + access);
+            mAuthHeader = header;
+        }
+        return header;
     }
 
     @Override
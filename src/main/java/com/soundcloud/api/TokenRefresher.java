@@ -0,0 +1,157 @@
+package com.soundcloud.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coordinates token refreshes for a single API wrapper. Concurrent requests which failed with
+ * the same access token share one in-flight refresh, and refreshes of different wrappers never
+ * block each other. Tokens of other users, held in a {@link TokenStore}, are refreshed the same
+ * way, one refresh per user at a time.
+ */
+class TokenRefresher {
+    private final CloudAPI mApi;
+    private volatile TokenStore mStore;
+    private final ConcurrentMap<String, FutureTask<Token>> mInFlight =
+            new ConcurrentHashMap<String, FutureTask<Token>>();
+
+    TokenRefresher(CloudAPI api) {
+        mApi = api;
+    }
+
+    /**
+     * Replaces the given access token, either with an alternative token supplied by the
+     * {@link CloudAPI.TokenListener} or by refreshing it. Returns immediately if the token
+     * has already been replaced.
+     *
+     * @param usedToken the access token which was found to be invalid
+     * @return the new token
+     * @throws IOException refresh failed
+     * @throws IllegalStateException no refresh token available
+     */
+    Token refresh(final String usedToken) throws IOException {
+        final Token current = mApi.getToken();
+        if (replaced(current, usedToken)) return current;
+
+        return run(usedToken == null ? "" : usedToken, new Callable<Token>() {
+            @Override public Token call() throws Exception {
+                // check again, another refresh might have completed in the meantime
+                final Token current = mApi.getToken();
+                if (replaced(current, usedToken)) return current;
+
+                final Token alternative = mApi.invalidateToken();
+                return alternative != null ? alternative : mApi.refreshToken();
+            }
+        });
+    }
+
+    /**
+     * Refreshes a still valid access token before it expires. Requests failing with the same
+     * token in the meantime wait for this refresh instead of starting their own.
+     *
+     * @param usedToken the access token about to expire
+     * @return the new token
+     * @throws IOException refresh failed
+     * @throws IllegalStateException no refresh token available
+     */
+    Token refreshAhead(final String usedToken) throws IOException {
+        final Token current = mApi.getToken();
+        if (replaced(current, usedToken)) return current;
+
+        return run(usedToken == null ? "" : usedToken, new Callable<Token>() {
+            @Override public Token call() throws Exception {
+                final Token current = mApi.getToken();
+                return replaced(current, usedToken) ? current : mApi.refreshToken();
+            }
+        });
+    }
+
+    /**
+     * Replaces the token of a user in the {@link TokenStore}. Returns immediately if the stored
+     * token has already been replaced. If the refresh token gets rejected the user is removed
+     * from the store.
+     *
+     * @param user      the user key
+     * @param usedToken the access token which was found to be invalid
+     * @return the new token
+     * @throws IOException refresh failed
+     * @throws IllegalStateException no token store set, or no refresh token available
+     */
+    Token refresh(final String user, final String usedToken) throws IOException {
+        final TokenStore store = mStore;
+        if (store == null) throw new IllegalStateException("no token store set");
+        // stores are set through ApiWrapper#setTokenStore, refreshing other tokens is not part of CloudAPI
+        if (!(mApi instanceof ApiWrapper)) throw new IllegalStateException("token stores need an ApiWrapper");
+        final Token stored = stored(store, user);
+        if (replaced(stored, usedToken)) return stored;
+
+        // access tokens never contain ':', user keys can't clash with them
+        return run("user:" + user, new Callable<Token>() {
+            @Override public Token call() throws Exception {
+                final Token current = stored(store, user);
+                if (replaced(current, usedToken)) return current;
+                try {
+                    final Token refreshed = ((ApiWrapper) mApi).refreshToken(current);
+                    store.put(user, refreshed);
+                    return refreshed;
+                } catch (CloudAPI.InvalidTokenException e) {
+                    store.remove(user);
+                    throw e;
+                }
+            }
+        });
+    }
+
+    void setTokenStore(TokenStore store) {
+        mStore = store;
+    }
+
+    TokenStore getTokenStore() {
+        return mStore;
+    }
+
+    static Token stored(TokenStore store, String user) throws IOException {
+        final Token token = store.get(user);
+        if (token == null) throw new CloudAPI.InvalidTokenException(-1, "no token stored for user '" + user + "'");
+        return token;
+    }
+
+    private Token run(String key, Callable<Token> refresh) throws IOException {
+        final FutureTask<Token> task = new FutureTask<Token>(refresh);
+        final FutureTask<Token> inFlight = mInFlight.putIfAbsent(key, task);
+        if (inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                mInFlight.remove(key, task);
+            }
+            return await(task);
+        } else {
+            return await(inFlight);
+        }
+    }
+
+    private static boolean replaced(Token current, String usedToken) {
+        return current != null && current.access != null && !current.access.equals(usedToken);
+    }
+
+    static Token await(FutureTask<Token> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for token refresh");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(String.valueOf(cause));
+        }
+    }
+}
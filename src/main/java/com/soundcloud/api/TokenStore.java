@@ -0,0 +1,34 @@
+package com.soundcloud.api;
+
+/**
+ * Holds the tokens of many users, so that a single wrapper can act on behalf of all of them.
+ * Requests are bound to a user with {@link Request#onBehalfOf(String)}. When such a request
+ * fails with an invalid token, the wrapper refreshes the token of that user and stores the
+ * result with {@link #put(String, Token)}.
+ *
+ * Implementations need to be thread-safe. Implementations backed by a database or a cache
+ * can use {@link #put(String, Token)} to persist refreshed tokens.
+ *
+ * @see MemoryTokenStore
+ * @see ApiWrapper#setTokenStore(TokenStore)
+ */
+public interface TokenStore {
+    /**
+     * @param user the user key
+     * @return the token of the user, or null if not known
+     */
+    Token get(String user);
+
+    /**
+     * Stores (or replaces) the token of a user.
+     * @param user  the user key
+     * @param token the token, null removes the entry
+     */
+    void put(String user, Token token);
+
+    /**
+     * @param user the user key
+     * @return the removed token, or null if not known
+     */
+    Token remove(String user);
+}
@@ -0,0 +1,271 @@
+package com.soundcloud.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A local index from content hashes to the resources they were uploaded to, so uploading the
+ * same content again (e.g. artwork shared by many tracks) can be skipped:
+ * <code>
+ *     <pre>
+ * UploadIndex index = new UploadIndex(new File("uploads.idx"), 10000);
+ * byte[] hash = UploadIndex.digest(artwork);
+ * String existing = index.get(hash);
+ * if (existing == null) {
+ *     HttpResponse resp = wrapper.post(Request.to(Endpoints.TRACKS).withFile(Params.Track.ARTWORK_DATA, artwork) ...);
+ *     if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_CREATED) {
+ *         index.put(hash, resp.getFirstHeader("Location").getValue());
+ *     }
+ * }
+ *     </pre>
+ * </code>
+ *
+ * Lookups are served from memory. The index keeps the most recently used entries up to its
+ * maximum size, and is persisted as an append-only log, which is compacted once it holds
+ * twice as many records as entries. Remove entries whose resource turns out to be gone.
+ * An index file should only be used by one process at a time.
+ */
+public class UploadIndex {
+    /** The digest used by {@link #digest(File)} */
+    public static final String ALGORITHM = "SHA-256";
+    /** The length in bytes of {@link #ALGORITHM} hashes */
+    public static final int HASH_LENGTH = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String REMOVED = "-";
+
+    private final File mFile;
+    private final int mMaxEntries;
+    private final Map<String, String> mEntries = new LinkedHashMap<String, String>(16, 0.75f, true);
+    private Writer mLog;
+    private int mRecords;
+    /** the log ends with a partially written record, which must not be appended to */
+    private boolean mTorn;
+
+    /**
+     * @param file       the file holding the index, created if it does not exist
+     * @param maxEntries the maximum number of entries, least recently used ones are dropped
+     * @throws IOException the index could not be read
+     */
+    public UploadIndex(File file, int maxEntries) throws IOException {
+        if (file == null) throw new IllegalArgumentException("file is null");
+        if (maxEntries <= 0) throw new IllegalArgumentException("invalid size: " + maxEntries);
+        mFile = file;
+        mMaxEntries = maxEntries;
+        load();
+    }
+
+    /**
+     * @param hash the {@link #ALGORITHM} hash of the content
+     * @return the resource the content was uploaded to, or null if not known
+     */
+    public synchronized String get(byte[] hash) {
+        return mEntries.get(key(hash));
+    }
+
+    /**
+     * @param hash     the {@link #ALGORITHM} hash of the content
+     * @param resource the resource the content was uploaded to, e.g. the Location of the response
+     * @throws IOException the index could not be written
+     */
+    public synchronized void put(byte[] hash, String resource) throws IOException {
+        if (resource == null || resource.length() == 0 || resource.equals(REMOVED) ||
+            resource.indexOf('\n') != -1 || resource.indexOf('\r') != -1) {
+            throw new IllegalArgumentException("invalid resource: " + resource);
+        }
+        final String key = key(hash);
+        if (resource.equals(mEntries.put(key, resource))) return;
+        evict();
+        append(key, resource);
+    }
+
+    /**
+     * @param hash the {@link #ALGORITHM} hash of the content
+     * @return true if the index contained the hash
+     * @throws IOException the index could not be written
+     */
+    public synchronized boolean remove(byte[] hash) throws IOException {
+        final String key = key(hash);
+        if (mEntries.remove(key) == null) return false;
+        append(key, REMOVED);
+        return true;
+    }
+
+    /** @return the number of entries */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /** Closes the log file, it is reopened when needed. */
+    public synchronized void close() throws IOException {
+        if (mLog != null) {
+            mLog.close();
+            mLog = null;
+        }
+    }
+
+    /**
+     * Computes the {@link #ALGORITHM} hash of a file.
+     * @param file the file
+     * @return the hash
+     * @throws IOException the file could not be read
+     */
+    public static byte[] digest(File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final ByteBuffer chunk = BufferPool.HEAP.acquire();
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            chunk.clear();
+            while (channel.read(chunk) != -1) {
+                chunk.flip();
+                digest.update(chunk);
+                chunk.clear();
+            }
+            return digest.digest();
+        } finally {
+            in.close();
+            BufferPool.HEAP.release(chunk);
+        }
+    }
+
+    private static String key(byte[] hash) {
+        if (hash == null || hash.length != HASH_LENGTH) {
+            throw new IllegalArgumentException("not a " + ALGORITHM + " hash");
+        }
+        return hex(hash);
+    }
+
+    private static boolean isKey(String key) {
+        if (key.length() != HASH_LENGTH * 2) return false;
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    static String hex(byte[] hash) {
+        if (hash == null || hash.length == 0) throw new IllegalArgumentException("empty hash");
+        final char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2]     = HEX[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private void load() throws IOException {
+        if (!mFile.exists()) return;
+        final InputStream in = new BufferedInputStream(new FileInputStream(mFile), ApiWrapper.BUFFER_SIZE);
+        try {
+            final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    parse(line.toString("UTF-8"));
+                    line.reset();
+                } else {
+                    line.write(b);
+                }
+            }
+            // a record without newline was cut off by a crashed process
+            mTorn = line.size() > 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Applies a complete record, skipping malformed ones */
+    private void parse(String line) {
+        final int space = line.indexOf(' ');
+        if (space == -1 || space == line.length() - 1) return;
+        final String key = line.substring(0, space), resource = line.substring(space + 1);
+        if (!isKey(key) || resource.indexOf('\r') != -1) return;
+
+        if (REMOVED.equals(resource)) {
+            mEntries.remove(key);
+        } else {
+            mEntries.put(key, resource);
+            evict();
+        }
+        mRecords++;
+    }
+
+    private void evict() {
+        final Iterator<String> eldest = mEntries.keySet().iterator();
+        while (mEntries.size() > mMaxEntries) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private void append(String key, String resource) throws IOException {
+        if (mTorn || mRecords >= 2 * Math.max(mEntries.size(), 16)) {
+            compact();
+        } else {
+            if (mLog == null) {
+                mLog = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile, true), "UTF-8"));
+            }
+            mLog.write(key);
+            mLog.write(' ');
+            mLog.write(resource);
+            mLog.write('\n');
+            mLog.flush();
+            mRecords++;
+        }
+    }
+
+    /** Rewrites the log with the current entries, oldest first */
+    private void compact() throws IOException {
+        close();
+        // createTempFile needs a prefix of at least 3 characters
+        final File tmp = File.createTempFile(mFile.getName() + ".compact", ".tmp", mFile.getAbsoluteFile().getParentFile());
+        boolean written = false;
+        try {
+            final FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                final Writer writer = new BufferedWriter(new OutputStreamWriter(fos, "UTF-8"));
+                for (Map.Entry<String, String> e : mEntries.entrySet()) {
+                    writer.write(e.getKey());
+                    writer.write(' ');
+                    writer.write(e.getValue());
+                    writer.write('\n');
+                }
+                writer.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            // renameTo does not replace existing files on all platforms
+            if (!tmp.renameTo(mFile) && !(mFile.delete() && tmp.renameTo(mFile))) {
+                throw new IOException("could not rename " + tmp + " to " + mFile);
+            }
+            written = true;
+            mRecords = mEntries.size();
+            mTorn = false;
+        } finally {
+            if (!written) tmp.delete();
+        }
+    }
+}
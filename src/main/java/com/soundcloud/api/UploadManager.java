@@ -0,0 +1,272 @@
+package com.soundcloud.api;
+
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs upload requests (e.g. to {@link Endpoints#TRACKS}) on its own threads, a bounded number
+ * at a time, so a batch of uploads neither runs one after the other nor takes over the
+ * threads and connections used for reads.
+ *
+ * Failed uploads (network errors and 5xx responses) are retried with exponential backoff,
+ * unless they are streamed ({@link Request#withFile(String, java.io.InputStream, long)}).
+ * Progress is tracked across all transfers through the progress listeners of the multipart
+ * requests, see {@link #getBytesPerSecond()} and {@link #getEta()}.
+ *
+ * <code>
+ *     <pre>
+ * UploadManager uploads = new UploadManager(wrapper, 2);
+ * for (File f : files) {
+ *     futures.add(uploads.submit(Request.to(Endpoints.TRACKS)
+ *                          .add(Params.Track.TITLE, f.getName())
+ *                          .withFile(Params.Track.ASSET_DATA, f)));
+ * }
+ *     </pre>
+ * </code>
+ *
+ * Keep the parallelism below the connections per route of the wrapper
+ * ({@link ApiWrapper#MAX_TOTAL_CONNECTIONS}) to leave room for other requests.
+ */
+public class UploadManager {
+    public static final int DEFAULT_RETRIES = 3;
+    /** Delay before the first retry, doubled for every further attempt, in milliseconds */
+    public static final long DEFAULT_RETRY_DELAY = 1000;
+
+    private final CloudAPI mApi;
+    private final ExecutorService mExecutor;
+    private final int mRetries;
+    private final long mRetryDelay;
+
+    private final AtomicInteger mPending = new AtomicInteger();
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicLong mTransferred = new AtomicLong();
+    private volatile long mStarted;
+
+    /**
+     * @param api         the api used for uploading
+     * @param parallelism the maximum number of concurrent uploads
+     */
+    public UploadManager(CloudAPI api, int parallelism) {
+        this(api, parallelism, DEFAULT_RETRIES, DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * @param api         the api used for uploading
+     * @param parallelism the maximum number of concurrent uploads
+     * @param retries     how often a failed upload is retried
+     * @param retryDelay  delay before the first retry, in milliseconds
+     */
+    public UploadManager(CloudAPI api, int parallelism, int retries, long retryDelay) {
+        if (api == null) throw new IllegalArgumentException("api is null");
+        if (parallelism <= 0) throw new IllegalArgumentException("invalid parallelism: " + parallelism);
+        if (retries < 0 || retryDelay < 0) throw new IllegalArgumentException("invalid retries");
+        mApi = api;
+        mRetries = retries;
+        mRetryDelay = retryDelay;
+        mExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+            @Override public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "upload-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues an upload, sent as POST. The request is copied, its progress listener is still
+     * notified (starting again from 0 for retries).
+     * @param request the upload request
+     * @return the response, which the caller has to consume. Fails with the last
+     *         {@link IOException} if all attempts failed.
+     */
+    public Future<HttpResponse> submit(final Request request) {
+        final Item item = new Item(request);
+        if (mPending.getAndIncrement() == 0) {
+            // a new batch
+            mTotal.set(0);
+            mTransferred.set(0);
+            mStarted = System.nanoTime();
+        }
+        mTotal.addAndGet(item.mLength);
+        try {
+            return mExecutor.submit(new Callable<HttpResponse>() {
+                @Override public HttpResponse call() throws IOException {
+                    try {
+                        return upload(item);
+                    } finally {
+                        mPending.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            mPending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @param requests the upload requests
+     * @return the responses, in the order of the requests
+     * @see #submit(Request)
+     */
+    public List<Future<HttpResponse>> submitAll(Collection<Request> requests) {
+        final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>(requests.size());
+        for (Request request : requests) futures.add(submit(request));
+        return futures;
+    }
+
+    private HttpResponse upload(Item item) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            item.reset();
+            try {
+                final HttpResponse resp = mApi.post(new Request(item.mRequest).setProgressListener(item));
+                if (resp.getStatusLine().getStatusCode() < 500 || attempt >= mRetries || !item.mRepeatable) {
+                    item.done();
+                    return resp;
+                }
+                if (resp.getEntity() != null) resp.getEntity().consumeContent();
+            } catch (IOException e) {
+                if (attempt >= mRetries || item.mCancelled || !item.mRepeatable ||
+                    e instanceof InterruptedIOException) {
+                    item.failed();
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(mRetryDelay << Math.min(attempt, 16));
+            } catch (InterruptedException e) {
+                item.failed();
+                throw new InterruptedIOException("upload interrupted");
+            }
+        }
+    }
+
+    /** @return the number of uploads queued or running */
+    public int getPending() {
+        return mPending.get();
+    }
+
+    /** @return the size of all uploads of the current batch, in bytes */
+    public long getTotalBytes() {
+        return mTotal.get();
+    }
+
+    /** @return the bytes sent for the current batch */
+    public long getTransferredBytes() {
+        return mTransferred.get();
+    }
+
+    /** @return the average throughput of the current batch, in bytes per second */
+    public long getBytesPerSecond() {
+        final long elapsed = System.nanoTime() - mStarted;
+        return elapsed <= 0 ? 0 : (long) (mTransferred.get() * 1e9 / elapsed);
+    }
+
+    /** @return the estimated time until all uploads are sent, in milliseconds, or -1 if not known yet */
+    public long getEta() {
+        final long rate = getBytesPerSecond();
+        if (rate <= 0) return -1;
+        return Math.max(0, mTotal.get() - mTransferred.get()) * 1000 / rate;
+    }
+
+    /** Stops accepting uploads, queued uploads are still sent. */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Stops accepting uploads and interrupts the running ones.
+     * @return the uploads which never started
+     */
+    public List<Runnable> shutdownNow() {
+        return mExecutor.shutdownNow();
+    }
+
+    /**
+     * @param timeout the maximum time to wait
+     * @param unit    unit of timeout
+     * @return true if all uploads finished, false on timeout
+     * @throws InterruptedException interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+
+    /** An upload, counting its progress into the totals of the manager */
+    private class Item implements Request.ThroughputListener {
+        final Request mRequest;
+        final Request.TransferProgressListener mListener;
+        final long mLength;
+        final boolean mRepeatable;
+        private long mCounted;
+        volatile boolean mCancelled;
+
+        Item(Request request) {
+            mRequest = request;
+            mListener = request.getListener();
+            // from the parts, the body is only built on the upload thread
+            mLength = Math.max(0, request.getContentLength());
+            mRepeatable = request.isRepeatable();
+        }
+
+        @Override public void transferred(long amount) throws IOException {
+            count(amount);
+            if (mListener != null) {
+                try {
+                    mListener.transferred(amount);
+                } catch (IOException e) {
+                    mCancelled = true;
+                    throw e;
+                }
+            }
+        }
+
+        @Override public void progress(Request.TransferProgress progress) throws IOException {
+            if (mListener instanceof Request.ThroughputListener) {
+                count(progress.getTransferred());
+                try {
+                    ((Request.ThroughputListener) mListener).progress(progress);
+                } catch (IOException e) {
+                    mCancelled = true;
+                    throw e;
+                }
+            } else {
+                transferred(progress.getTransferred());
+            }
+        }
+
+        private void count(long amount) {
+            mTransferred.addAndGet(amount - mCounted);
+            mCounted = amount;
+        }
+
+        void reset() {
+            mTransferred.addAndGet(-mCounted);
+            mCounted = 0;
+        }
+
+        void done() {
+            mTransferred.addAndGet(mLength - mCounted);
+            mCounted = mLength;
+        }
+
+        void failed() {
+            reset();
+            mTotal.addAndGet(-mLength);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.soundcloud.api;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.IllegalFormatConversionException;
+import java.util.List;
+import java.util.MissingFormatArgumentException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A resource template like {@link Endpoints#TRACK_DETAILS} (<code>"/tracks/%d"</code>), parsed once
+ * and expanded by appending the arguments directly, without going through
+ * {@link String#format(String, Object...)}.
+ *
+ * Only the <code>%d</code>, <code>%s</code> and <code>%%</code> conversions are supported.
+ * Numbers are always expanded with ASCII digits, independent of the default locale.
+ *
+ * @see Endpoints.Templates
+ * @see Request#to(UriTemplate, long)
+ */
+public final class UriTemplate {
+    /** Templates used by {@link Request#to(String, Object...)}, bounded to avoid unlimited growth */
+    private static final ConcurrentMap<String, UriTemplate> CACHE = new ConcurrentHashMap<String, UriTemplate>();
+    private static final int MAX_CACHED = 512;
+    private static final UriTemplate UNSUPPORTED = new UriTemplate("", new String[] { "" }, new char[0]);
+
+    private final String mTemplate;
+    private final String[] mLiterals;
+    private final char[] mConversions;
+    private final int mLength;
+
+    private UriTemplate(String template, String[] literals, char[] conversions) {
+        mTemplate = template;
+        mLiterals = literals;
+        mConversions = conversions;
+        int length = 0;
+        for (String literal : literals) length += literal.length();
+        mLength = length;
+    }
+
+    /**
+     * @param template the template, e.g. <code>"/tracks/%d/comments"</code>
+     * @return the compiled template
+     * @throws IllegalArgumentException the template uses unsupported conversions
+     */
+    public static UriTemplate compile(String template) {
+        final UriTemplate compiled = parse(template);
+        if (compiled == null) throw new IllegalArgumentException("unsupported template: " + template);
+        return compiled;
+    }
+
+    /**
+     * @param template the template
+     * @return the compiled template from the cache, or null if the template is not supported
+     */
+    static UriTemplate cached(String template) {
+        UriTemplate compiled = CACHE.get(template);
+        if (compiled == null) {
+            compiled = parse(template);
+            if (compiled == null) compiled = UNSUPPORTED;
+            if (CACHE.size() < MAX_CACHED) CACHE.putIfAbsent(template, compiled);
+        }
+        return compiled == UNSUPPORTED ? null : compiled;
+    }
+
+    private static UriTemplate parse(String template) {
+        final List<String> literals = new ArrayList<String>(2);
+        final StringBuilder conversions = new StringBuilder(1);
+        final StringBuilder literal = new StringBuilder(template.length());
+        for (int i = 0; i < template.length(); i++) {
+            final char c = template.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+            } else if (i + 1 < template.length()) {
+                final char conversion = template.charAt(++i);
+                switch (conversion) {
+                    case '%':
+                        literal.append('%');
+                        break;
+                    case 'd':
+                    case 's':
+                        literals.add(literal.toString());
+                        literal.setLength(0);
+                        conversions.append(conversion);
+                        break;
+                    default:
+                        return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        literals.add(literal.toString());
+        return new UriTemplate(template, literals.toArray(new String[literals.size()]),
+                conversions.toString().toCharArray());
+    }
+
+    /** @return the number of arguments the template expects */
+    public int getArgumentCount() {
+        return mConversions.length;
+    }
+
+    /**
+     * Expands a template with a single argument, e.g. an id.
+     * @param id the argument
+     * @return the expanded resource
+     * @throws IllegalArgumentException the template does not take exactly one argument
+     */
+    public String expand(long id) {
+        if (mConversions.length != 1) {
+            throw new IllegalArgumentException(mTemplate + " expects " + mConversions.length + " arguments");
+        }
+        return new StringBuilder(mLength + 20)
+                .append(mLiterals[0])
+                .append(id)
+                .append(mLiterals[1])
+                .toString();
+    }
+
+    /**
+     * Expands the template, with the same results as {@link String#format(String, Object...)}
+     * for the supported conversions.
+     * @param args the arguments, additional arguments are ignored
+     * @return the expanded resource
+     * @throws java.util.IllegalFormatException not enough arguments, or a non-integer argument for <code>%d</code>
+     */
+    public String expand(Object... args) {
+        final StringBuilder sb = new StringBuilder(mLength + 20 * mConversions.length);
+        sb.append(mLiterals[0]);
+        for (int i = 0; i < mConversions.length; i++) {
+            if (args == null || i >= args.length) {
+                throw new MissingFormatArgumentException("%" + mConversions[i]);
+            }
+            final Object arg = args[i];
+            if (mConversions[i] == 'd' && arg != null && !isInteger(arg)) {
+                throw new IllegalFormatConversionException('d', arg.getClass());
+            }
+            sb.append(arg).append(mLiterals[i + 1]);
+        }
+        return sb.toString();
+    }
+
+    private static boolean isInteger(Object arg) {
+        return arg instanceof Long || arg instanceof Integer || arg instanceof Short ||
+               arg instanceof Byte || arg instanceof BigInteger;
+    }
+
+    @Override
+    public String toString() {
+        return mTemplate;
+    }
+}
@@ -0,0 +1,28 @@
+package com.soundcloud.api.model;
+
+import com.soundcloud.api.JsonReader;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A page of an activities feed. Use {@link #nextHref} to request the next page.
+ */
+public class Activities extends Model {
+    public static final Factory<Activities> FACTORY = new Factory<Activities>() {
+        @Override public Activities create() {
+            return new Activities();
+        }
+    };
+
+    public List<Activity> collection;
+    public String nextHref, futureHref;
+
+    @Override protected boolean bind(JsonReader r, String name) throws IOException {
+        if ("collection".equals(name))       collection = readList(r, Activity.FACTORY);
+        else if ("next_href".equals(name))   nextHref = r.nextString();
+        else if ("future_href".equals(name)) futureHref = r.nextString();
+        else return false;
+        return true;
+    }
+}
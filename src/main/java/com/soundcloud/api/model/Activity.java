@@ -0,0 +1,90 @@
+package com.soundcloud.api.model;
+
+import com.soundcloud.api.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * An entry of the activities feeds (e.g. {@link com.soundcloud.api.Endpoints#MY_ACTIVITIES}).
+ * The origin is a {@link Track} or a {@link Comment}, depending on the activity type.
+ */
+public class Activity extends Model {
+    public static final Factory<Activity> FACTORY = new Factory<Activity>() {
+        @Override public Activity create() {
+            return new Activity();
+        }
+    };
+
+    public static final String TYPE_COMMENT = "comment";
+
+    public String type, tags, createdAt;
+    public Model origin;
+
+    // only used if the origin was read before the type was known
+    private Track mTrackOrigin;
+    private Comment mCommentOrigin;
+
+    /** @return the origin if it is a track, null otherwise */
+    public Track getTrack() {
+        return origin instanceof Track ? (Track) origin : null;
+    }
+
+    /** @return the origin if it is a comment, null otherwise */
+    public Comment getComment() {
+        return origin instanceof Comment ? (Comment) origin : null;
+    }
+
+    @Override protected boolean bind(JsonReader r, String name) throws IOException {
+        if ("type".equals(name))            type = r.nextString();
+        else if ("tags".equals(name))       tags = r.nextString();
+        else if ("created_at".equals(name)) createdAt = r.nextString();
+        else if ("origin".equals(name))     bindOrigin(r);
+        else return false;
+        return true;
+    }
+
+    private void bindOrigin(JsonReader r) throws IOException {
+        if (type != null) {
+            origin = TYPE_COMMENT.equals(type) ? read(r, Comment.FACTORY) : read(r, Track.FACTORY);
+        } else if (r.peek() == JsonReader.Type.NULL) {
+            r.nextNull();
+        } else {
+            // type not known yet, bind as both and decide in complete()
+            mTrackOrigin = new Track();
+            mCommentOrigin = new Comment();
+            r.beginObject();
+            while (r.hasNext()) {
+                final String name = r.nextName();
+                if (!mTrackOrigin.bind(r, name) && !mCommentOrigin.bind(r, name)) r.skipValue();
+            }
+            r.endObject();
+        }
+    }
+
+    @Override protected void complete() {
+        if (mTrackOrigin != null) {
+            if (TYPE_COMMENT.equals(type)) {
+                // members shared with tracks were bound to the track
+                mCommentOrigin.id = mTrackOrigin.id;
+                mCommentOrigin.userId = mTrackOrigin.userId;
+                mCommentOrigin.user = mTrackOrigin.user;
+                mCommentOrigin.createdAt = mTrackOrigin.createdAt;
+                mCommentOrigin.uri = mTrackOrigin.uri;
+                origin = mCommentOrigin;
+            } else {
+                origin = mTrackOrigin;
+            }
+            mTrackOrigin = null;
+            mCommentOrigin = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Activity{" +
+                "type='" + type + '\'' +
+                ", createdAt='" + createdAt + '\'' +
+                ", origin=" + origin +
+                '}';
+    }
+}
@@ -0,0 +1,43 @@
+package com.soundcloud.api.model;
+
+import com.soundcloud.api.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * A comment on a track.
+ * @see com.soundcloud.api.Params.Comment
+ */
+public class Comment extends Model {
+    public static final Factory<Comment> FACTORY = new Factory<Comment>() {
+        @Override public Comment create() {
+            return new Comment();
+        }
+    };
+
+    public long id, userId, trackId, timestamp;
+    public User user;
+    public String createdAt, uri, body;
+
+    @Override protected boolean bind(JsonReader r, String name) throws IOException {
+        if ("id".equals(name))              id = r.nextLong();
+        else if ("body".equals(name))       body = r.nextString();
+        else if ("timestamp".equals(name))  timestamp = r.nextLong();
+        else if ("track_id".equals(name))   trackId = r.nextLong();
+        else if ("user_id".equals(name))    userId = r.nextLong();
+        else if ("user".equals(name))       user = read(r, User.FACTORY);
+        else if ("created_at".equals(name)) createdAt = r.nextString();
+        else if ("uri".equals(name))        uri = r.nextString();
+        else return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Comment{" +
+                "id=" + id +
+                ", body='" + body + '\'' +
+                ", user=" + user +
+                '}';
+    }
+}
@@ -0,0 +1,93 @@
+package com.soundcloud.api.model;
+
+import com.soundcloud.api.JsonReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for typed API resources. Models are bound field by field straight from a
+ * {@link JsonReader}, without reflection or intermediate JSON objects.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  HttpResponse resp = wrapper.get(Request.to(Endpoints.TRACKS));
+ *  List&lt;Track&gt; tracks = Model.readList(Http.getJsonReader(resp), Track.FACTORY);
+ *   </pre>
+ * </code>
+ */
+public abstract class Model {
+    /**
+     * Creates empty model instances.
+     * @param <T> the model type
+     */
+    public interface Factory<T extends Model> {
+        T create();
+    }
+
+    /**
+     * Binds a single object member.
+     * @param reader the reader, positioned at the value of the member
+     * @param name   the (interned) member name
+     * @return true if the value was consumed, false if the member is unknown
+     * @throws IOException parse error
+     */
+    protected abstract boolean bind(JsonReader reader, String name) throws IOException;
+
+    /** Called after all members of the object have been bound */
+    protected void complete() {
+    }
+
+    /**
+     * Binds the next JSON object to this instance, unknown members are skipped.
+     * @param reader the reader
+     * @throws IOException parse error
+     */
+    public void readFrom(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!bind(reader, reader.nextName())) reader.skipValue();
+        }
+        reader.endObject();
+        complete();
+    }
+
+    /**
+     * @param reader  the reader
+     * @param factory factory for the model type
+     * @param <T>     the model type
+     * @return the bound model, or null if the next value is null
+     * @throws IOException parse error
+     */
+    public static <T extends Model> T read(JsonReader reader, Factory<T> factory) throws IOException {
+        if (reader.peek() == JsonReader.Type.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        final T model = factory.create();
+        model.readFrom(reader);
+        return model;
+    }
+
+    /**
+     * Binds a JSON array of objects.
+     * @param reader  the reader
+     * @param factory factory for the model type
+     * @param <T>     the model type
+     * @return the bound models, or null if the next value is null
+     * @throws IOException parse error
+     */
+    public static <T extends Model> List<T> readList(JsonReader reader, Factory<T> factory) throws IOException {
+        if (reader.peek() == JsonReader.Type.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        final List<T> list = new ArrayList<T>();
+        reader.beginArray();
+        while (reader.hasNext()) list.add(read(reader, factory));
+        reader.endArray();
+        return list;
+    }
+}
@@ -0,0 +1,78 @@
+package com.soundcloud.api.model;
+
+import com.soundcloud.api.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * A SoundCloud track.
+ * @see com.soundcloud.api.Params.Track
+ */
+public class Track extends Model {
+    public static final Factory<Track> FACTORY = new Factory<Track>() {
+        @Override public Track create() {
+            return new Track();
+        }
+    };
+
+    public long id, userId, duration;
+    public User user;
+    public String createdAt, uri, permalink, permalinkUrl, artworkUrl, waveformUrl, streamUrl, downloadUrl;
+    public String title, trackType, description, tagList, sharing, genre, license;
+    public String release, purchaseUrl, labelName, videoUrl, isrc, keySignature;
+    public long labelId;
+    public int releaseDay, releaseMonth, releaseYear;
+    public double bpm;
+    public boolean streamable, downloadable;
+    public int playbackCount, downloadCount, favoritingsCount, commentCount;
+
+    @Override protected boolean bind(JsonReader r, String name) throws IOException {
+        if ("id".equals(name))                     id = r.nextLong();
+        else if ("title".equals(name))             title = r.nextString();
+        else if ("user_id".equals(name))           userId = r.nextLong();
+        else if ("user".equals(name))              user = read(r, User.FACTORY);
+        else if ("created_at".equals(name))        createdAt = r.nextString();
+        else if ("duration".equals(name))          duration = r.nextLong();
+        else if ("uri".equals(name))               uri = r.nextString();
+        else if ("permalink".equals(name))         permalink = r.nextString();
+        else if ("permalink_url".equals(name))     permalinkUrl = r.nextString();
+        else if ("artwork_url".equals(name))       artworkUrl = r.nextString();
+        else if ("waveform_url".equals(name))      waveformUrl = r.nextString();
+        else if ("stream_url".equals(name))        streamUrl = r.nextString();
+        else if ("download_url".equals(name))      downloadUrl = r.nextString();
+        else if ("sharing".equals(name))           sharing = r.nextString();
+        else if ("streamable".equals(name))        streamable = r.nextBoolean();
+        else if ("downloadable".equals(name))      downloadable = r.nextBoolean();
+        else if ("track_type".equals(name))        trackType = r.nextString();
+        else if ("description".equals(name))       description = r.nextString();
+        else if ("tag_list".equals(name))          tagList = r.nextString();
+        else if ("genre".equals(name))             genre = r.nextString();
+        else if ("license".equals(name))           license = r.nextString();
+        else if ("release".equals(name))           release = r.nextString();
+        else if ("release_day".equals(name))       releaseDay = r.nextInt();
+        else if ("release_month".equals(name))     releaseMonth = r.nextInt();
+        else if ("release_year".equals(name))      releaseYear = r.nextInt();
+        else if ("purchase_url".equals(name))      purchaseUrl = r.nextString();
+        else if ("label_name".equals(name))        labelName = r.nextString();
+        else if ("label_id".equals(name))          labelId = r.nextLong();
+        else if ("video_url".equals(name))         videoUrl = r.nextString();
+        else if ("isrc".equals(name))              isrc = r.nextString();
+        else if ("key_signature".equals(name))     keySignature = r.nextString();
+        else if ("bpm".equals(name))               bpm = r.nextDouble();
+        else if ("playback_count".equals(name))    playbackCount = r.nextInt();
+        else if ("download_count".equals(name))    downloadCount = r.nextInt();
+        else if ("favoritings_count".equals(name)) favoritingsCount = r.nextInt();
+        else if ("comment_count".equals(name))     commentCount = r.nextInt();
+        else return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Track{" +
+                "id=" + id +
+                ", title='" + title + '\'' +
+                ", user=" + user +
+                '}';
+    }
+}
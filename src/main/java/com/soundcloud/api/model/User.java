@@ -0,0 +1,56 @@
+package com.soundcloud.api.model;
+
+import com.soundcloud.api.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * A SoundCloud user.
+ * @see com.soundcloud.api.Params.User
+ */
+public class User extends Model {
+    public static final Factory<User> FACTORY = new Factory<User>() {
+        @Override public User create() {
+            return new User();
+        }
+    };
+
+    public long id;
+    public String uri, permalink, permalinkUrl, avatarUrl;
+    public String username, fullName, description, city, country;
+    public String discogsName, myspaceName, website, websiteTitle;
+    public int trackCount, followersCount, followingsCount, publicFavoritesCount;
+    public boolean online;
+
+    @Override protected boolean bind(JsonReader r, String name) throws IOException {
+        if ("id".equals(name))                          id = r.nextLong();
+        else if ("username".equals(name))               username = r.nextString();
+        else if ("uri".equals(name))                    uri = r.nextString();
+        else if ("permalink".equals(name))              permalink = r.nextString();
+        else if ("permalink_url".equals(name))          permalinkUrl = r.nextString();
+        else if ("avatar_url".equals(name))             avatarUrl = r.nextString();
+        else if ("full_name".equals(name))              fullName = r.nextString();
+        else if ("description".equals(name))            description = r.nextString();
+        else if ("city".equals(name))                   city = r.nextString();
+        else if ("country".equals(name))                country = r.nextString();
+        else if ("discogs_name".equals(name))           discogsName = r.nextString();
+        else if ("myspace_name".equals(name))           myspaceName = r.nextString();
+        else if ("website".equals(name))                website = r.nextString();
+        else if ("website_title".equals(name))          websiteTitle = r.nextString();
+        else if ("track_count".equals(name))            trackCount = r.nextInt();
+        else if ("followers_count".equals(name))        followersCount = r.nextInt();
+        else if ("followings_count".equals(name))       followingsCount = r.nextInt();
+        else if ("public_favorites_count".equals(name)) publicFavoritesCount = r.nextInt();
+        else if ("online".equals(name))                 online = r.nextBoolean();
+        else return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "User{" +
+                "id=" + id +
+                ", username='" + username + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Typed representations of SoundCloud API resources, bound from JSON responses
+ * without reflection.
+ *
+ * @see com.soundcloud.api.model.Model
+ * @see com.soundcloud.api.Http#getJsonReader(org.apache.http.HttpResponse)
+ */
+package com.soundcloud.api.model;
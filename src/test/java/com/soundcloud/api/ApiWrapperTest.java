@@ -3,15 +3,21 @@ package com.soundcloud.api;
 import static junit.framework.Assert.fail;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import com.soundcloud.api.fakehttp.FakeHttpLayer;
 import com.soundcloud.api.fakehttp.RequestMatcher;
 import org.apache.http.ConnectionReuseStrategy;
 import org.apache.http.Header;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
@@ -22,6 +28,7 @@ import org.apache.http.client.HttpRequestRetryHandler;
 import org.apache.http.client.RedirectHandler;
 import org.apache.http.client.RequestDirector;
 import org.apache.http.client.UserTokenHandler;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.routing.HttpRoutePlanner;
@@ -31,10 +38,22 @@ import org.apache.http.protocol.HttpProcessor;
 import org.apache.http.protocol.HttpRequestExecutor;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectOutputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class ApiWrapperTest {
@@ -90,6 +109,27 @@ public class ApiWrapperTest {
         assertNotNull(t.getExpiresIn());
     }
 
+    @Test
+    public void clientCredentialsShouldNotReplaceLeasedTokenInFileCache() throws Exception {
+        File file = File.createTempFile("token", "cache");
+        try {
+            FileTokenCache cache = new FileTokenCache(file);
+            cache.write(new Token("user", "refresh"));
+            assertThat(cache.onTokenInvalid(new Token("user", "refresh")), nullValue());
+            api.setTokenListener(cache);
+
+            layer.addPendingHttpResponse(200, "{\n" +
+                    "  \"access_token\":  \"app\",\n" +
+                    "  \"expires_in\":    3600,\n" +
+                    "  \"scope\":         \"signup\"\n" +
+                    "}");
+            assertThat(api.clientCredentials().access, equalTo("app"));
+            assertThat(cache.read().access, equalTo("user"));
+        } finally {
+            file.delete();
+        }
+    }
+
     @Test(expected = CloudAPI.InvalidTokenException.class)
     public void clientCredentialsShouldThrowIfScopeCanNotBeObtained() throws Exception {
         layer.addPendingHttpResponse(200, "{\n" +
@@ -101,6 +141,87 @@ public class ApiWrapperTest {
         api.clientCredentials("unlimitedammo");
     }
 
+    @Test
+    public void clientCredentialsShouldBeCachedPerScope() throws Exception {
+        layer.addPendingHttpResponse(200, clientToken("signup-token", "signup", 3600));
+        layer.addPendingHttpResponse(200, clientToken("playcount-token", "playcount", 3600));
+        layer.addPendingHttpResponse(200, clientToken("other-token", "signup", 3600));
+
+        assertThat(api.clientCredentials().access, equalTo("signup-token"));
+        assertThat(api.clientCredentials(Token.SCOPE_SIGNUP).access, equalTo("signup-token"));
+        assertThat(api.clientCredentials(Token.SCOPE_PLAYCOUNT).access, equalTo("playcount-token"));
+        assertThat(api.clientCredentials(Token.SCOPE_PLAYCOUNT).access, equalTo("playcount-token"));
+        assertTrue(layer.hasPendingResponses());
+    }
+
+    @Test
+    public void clientCredentialsShouldNotReuseTokensAboutToExpire() throws Exception {
+        layer.addPendingHttpResponse(200, clientToken("expiring", "signup", 10));
+        layer.addPendingHttpResponse(200, clientToken("fresh", "signup", 3600));
+
+        assertThat(api.clientCredentials().access, equalTo("expiring"));
+        assertThat(api.clientCredentials().access, equalTo("fresh"));
+    }
+
+    @Test
+    public void clientCredentialsShouldBeRequestedAgainAfterInvalidation() throws Exception {
+        layer.addPendingHttpResponse(200, clientToken("first", "signup", 3600));
+        layer.addPendingHttpResponse(200, clientToken("second", "signup", 3600));
+
+        Token first = api.clientCredentials();
+        assertTrue(api.invalidateClientCredentials(first));
+        assertFalse(api.invalidateClientCredentials(first));
+        assertThat(api.clientCredentials().access, equalTo("second"));
+    }
+
+    @Test(timeout = 5000)
+    public void concurrentClientCredentialsShouldShareOneRequest() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch requesting = new CountDownLatch(1), release = new CountDownLatch(1);
+        final ApiWrapper wrapper = new ApiWrapper("client", "secret", null, null, Env.SANDBOX) {
+            @Override protected Token fetchToken(Request request) throws IOException {
+                requests.incrementAndGet();
+                requesting.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return new Token("app", null, Token.SCOPE_SIGNUP);
+            }
+        };
+        final List<Token> tokens = Collections.synchronizedList(new ArrayList<Token>());
+        Thread[] threads = new Thread[3];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    try {
+                        tokens.add(wrapper.clientCredentials());
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+            if (i == 0) requesting.await();
+        }
+        Thread.sleep(50);
+        release.countDown();
+        for (Thread t : threads) t.join();
+
+        assertThat(requests.get(), is(1));
+        assertThat(tokens.size(), is(3));
+        for (Token t : tokens) assertThat(t.access, equalTo("app"));
+    }
+
+    private static String clientToken(String access, String scope, int expiresIn) {
+        return "{\n" +
+                "  \"access_token\":  \"" + access + "\",\n" +
+                "  \"expires_in\":    " + expiresIn + ",\n" +
+                "  \"scope\":         \"" + scope + "\"\n" +
+                "}";
+    }
+
     @Test
     public void exchangeOAuth1Token() throws Exception {
         layer.addPendingHttpResponse(200, "{\n" +
@@ -285,6 +406,62 @@ public class ApiWrapperTest {
         assertThat(api.delete(new Request("/foo/something")), equalTo(resp));
     }
 
+    @Test
+    public void shouldLimitBandwidthOfRequestBodies() throws Exception {
+        api.setBandwidthLimiter(new BandwidthLimiter(1024 * 1024));
+        layer.addHttpResponseRule("POST", "/tracks", mock(HttpResponse.class));
+        layer.addHttpResponseRule("/me", "me");
+
+        api.post(Request.to("/tracks").withFile("foo", new byte[10]));
+        api.get(Request.to("/me"));
+        HttpRequest post = layer.getSentHttpRequestInfo(0).getHttpRequest();
+        assertThat(((HttpEntityEnclosingRequest) post).getEntity(), instanceOf(ThrottledEntity.class));
+        assertThat(layer.getSentHttpRequestInfo(1).getHttpRequest(), not(instanceOf(HttpEntityEnclosingRequest.class)));
+    }
+
+    @Test
+    public void shouldExpectContinueForLargeUploads() throws Exception {
+        layer.addHttpResponseRule("POST", "/tracks", mock(HttpResponse.class));
+        api.post(Request.to("/tracks").withFile("foo", new byte[1000]));
+
+        api.setExpectContinue(500, 1234);
+        api.post(Request.to("/tracks").withFile("foo", new byte[1000]));
+        api.post(Request.to("/tracks").withFile("foo", new byte[10]));
+        api.post(Request.to("/tracks").withContent(new String(new char[1000]), "text/plain"));
+
+        boolean[] expected = { false, true, false, false };
+        for (int i = 0; i < expected.length; i++) {
+            HttpParams params = layer.getSentHttpRequestInfo(i).getHttpRequest().getParams();
+            assertThat(params.getBooleanParameter("http.protocol.expect-continue", false), is(expected[i]));
+        }
+        assertThat(layer.getSentHttpRequestInfo(1).getHttpRequest().getParams()
+                .getIntParameter("http.protocol.wait-for-continue", 0), is(1234));
+    }
+
+    @Test
+    public void shouldUseStoredTokenForRequestsOnBehalfOfUser() throws Exception {
+        TokenStore store = new MemoryTokenStore();
+        store.put("alice", new Token("alice-token", "refresh"));
+        api.setTokenStore(store);
+        api.setToken(new Token("wrapper-token", "refresh"));
+        layer.addHttpResponseRule("/me", "alice");
+
+        api.get(Request.to("/me").onBehalfOf("alice"));
+        assertThat(layer.getSentHttpRequestInfo(0).getHttpRequest()
+                .getFirstHeader("Authorization").getValue(), equalTo("OAuth alice-token"));
+    }
+
+    @Test(expected = CloudAPI.InvalidTokenException.class)
+    public void shouldThrowForRequestsOnBehalfOfUnknownUser() throws Exception {
+        api.setTokenStore(new MemoryTokenStore());
+        api.get(Request.to("/me").onBehalfOf("bob"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRequireTokenStoreForRequestsOnBehalfOfUser() throws Exception {
+        api.get(Request.to("/me").onBehalfOf("bob"));
+    }
+
     @Test
     public void testGetOAuthHeader() throws Exception {
         Header h = ApiWrapper.createOAuthHeader(new Token("foo", "refresh"));
@@ -292,6 +469,26 @@ public class ApiWrapperTest {
         assertThat(h.getValue(), equalTo("OAuth foo"));
     }
 
+    @Test
+    public void shouldReuseOAuthHeaderOfToken() throws Exception {
+        Token token = new Token("foo", "refresh");
+        assertSame(ApiWrapper.createOAuthHeader(token), ApiWrapper.createOAuthHeader(token));
+        token.invalidate();
+        assertThat(ApiWrapper.createOAuthHeader(token).getValue(), equalTo("OAuth invalidated"));
+    }
+
+    @Test
+    public void shouldAddDefaultAcceptHeader() throws Exception {
+        HttpGet request = new HttpGet("/foo");
+        api.addHeaders(request);
+        assertThat(request.getFirstHeader("Accept").getValue(), equalTo("application/json"));
+
+        api.setDefaultContentType("application/xml");
+        HttpGet other = new HttpGet("/foo");
+        api.addHeaders(other);
+        assertThat(other.getFirstHeader("Accept").getValue(), equalTo("application/xml"));
+    }
+
     @Test
     public void testGetOAuthHeaderNullToken() throws Exception {
         Header h = ApiWrapper.createOAuthHeader(null);
@@ -400,6 +597,110 @@ public class ApiWrapperTest {
         verify(listener).onTokenRefreshed(api.getToken());
     }
 
+    @Test
+    public void shouldNotCallTokenStateListenerWhenStoredTokenIsRefreshed() throws Exception {
+        layer.addPendingHttpResponse(200, "{\n" +
+                "  \"access_token\":  \"alice-fr3sh\",\n" +
+                "  \"expires_in\":    3600,\n" +
+                "  \"scope\":         null,\n" +
+                "  \"refresh_token\": \"refresh\"\n" +
+                "}");
+
+        CloudAPI.TokenListener listener = mock(CloudAPI.TokenListener.class);
+        api.setToken(new Token("access", "refresh"));
+        api.setTokenListener(listener);
+        Token refreshed = api.refreshToken(new Token("alice-token", "alice-refresh"));
+
+        assertThat(refreshed.access, equalTo("alice-fr3sh"));
+        assertThat(api.getToken().access, equalTo("access"));
+        verify(listener, never()).onTokenRefreshed(any(Token.class));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldRefreshTokenInBackgroundBeforeExpiry() throws Exception {
+        layer.addPendingHttpResponse(200, "{\n" +
+                "  \"access_token\":  \"fr3sh\",\n" +
+                "  \"expires_in\":    3600,\n" +
+                "  \"scope\":         null,\n" +
+                "  \"refresh_token\": \"refresh\"\n" +
+                "}");
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        api.setTokenListener(new CloudAPI.TokenListener() {
+            @Override public Token onTokenInvalid(Token token) {
+                return null;
+            }
+
+            @Override public void onTokenRefreshed(Token token) {
+                refreshed.countDown();
+            }
+        });
+        Token token = new Token("access", "refresh");
+        token.expiresIn = System.currentTimeMillis() + 1000;
+        api.setToken(token);
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            api.setAutoRefresh(executor, ApiWrapper.DEFAULT_REFRESH_MARGIN);
+            refreshed.await();
+            // the listener is notified just before the token is swapped
+            while (api.getToken() == token) Thread.sleep(10);
+            assertThat(api.getToken().access, equalTo("fr3sh"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldScheduleRefreshAheadOfExpiry() throws Exception {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        api.setAutoRefresh(executor, 5 * 60 * 1000);
+
+        Token token = new Token("access", "refresh");
+        token.expiresIn = System.currentTimeMillis() + 60 * 60 * 1000;
+        api.setToken(token);
+
+        ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+        verify(executor).schedule(any(Runnable.class), delay.capture(), eq(TimeUnit.MILLISECONDS));
+        assertTrue(delay.getValue() > 54 * 60 * 1000);
+        assertTrue(delay.getValue() <= 55 * 60 * 1000);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldScheduleRefreshOfCurrentTokenWhenUpdatedConcurrently() throws Exception {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        api.setAutoRefresh(executor, 0);
+        final long base = System.currentTimeMillis() + 60 * 60 * 1000;
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        Token token = new Token("access" + thread + "-" + j, "refresh");
+                        // one minute apart, so the schedule identifies the token
+                        token.expiresIn = base + (thread * 100 + j) * 60 * 1000L;
+                        api.setToken(token);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) t.join();
+
+        ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+        verify(executor, atLeastOnce()).schedule(any(Runnable.class), delay.capture(), eq(TimeUnit.MILLISECONDS));
+        long scheduledExpiry = System.currentTimeMillis() + delay.getValue();
+        assertTrue(Math.abs(scheduledExpiry - api.getToken().expiresIn) < 30 * 1000);
+    }
+
+    @Test
+    public void shouldNotScheduleRefreshForNonExpiringTokens() throws Exception {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        api.setAutoRefresh(executor, ApiWrapper.DEFAULT_REFRESH_MARGIN);
+        api.setToken(new Token("access", null, Token.SCOPE_NON_EXPIRING));
+        verifyZeroInteractions(executor);
+    }
+
     @Test
     public void shouldSerializeAndDeserializeWrapper() throws Exception {
         ApiWrapper wrapper = new ApiWrapper("client", "secret", null, new Token("1", "2"), Env.SANDBOX);
@@ -417,4 +718,64 @@ public class ApiWrapperTest {
         other.invalidateToken();
         verify(listener).onTokenInvalid(old);
     }
+
+    @Test
+    public void shouldRestoreConfigurationFromSnapshot() throws Exception {
+        Token token = new Token("access", "refresh", "* non-expiring");
+        token.expiresIn = 1234567L;
+        ApiWrapper wrapper = new ApiWrapper("client", "secret", URI.create("redirect://me"), token, Env.LIVE);
+        wrapper.setDefaultContentType("application/xml");
+        File snapshot = File.createTempFile("wrapper", "snapshot");
+        wrapper.toFile(snapshot);
+
+        ApiWrapper other = ApiWrapper.fromFile(snapshot);
+        assertThat(other.getToken(), equalTo(token));
+        assertThat(other.getToken().expiresIn, is(1234567L));
+        assertThat(other.env, is(Env.LIVE));
+        assertThat(other.getDefaultContentType(), equalTo("application/xml"));
+        assertThat(other.authorizationCodeUrl().toString(), equalTo(wrapper.authorizationCodeUrl().toString()));
+    }
+
+    @Test
+    public void shouldReplaceSnapshotWithoutLeavingTemporaryFiles() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "snapshot-" + System.nanoTime());
+        assertTrue(dir.mkdir());
+        File snapshot = new File(dir, "wrapper");
+        new ApiWrapper("client", "secret", null, new Token("1", "2"), Env.SANDBOX).toFile(snapshot);
+        new ApiWrapper("client", "secret", null, new Token("3", "4"), Env.SANDBOX).toFile(snapshot);
+
+        assertThat(ApiWrapper.fromFile(snapshot).getToken().access, equalTo("3"));
+        assertThat(dir.list().length, is(1));
+        snapshot.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void shouldWriteSnapshotsWithShortNames() throws Exception {
+        File snapshot = new File(System.getProperty("java.io.tmpdir"), "w");
+        try {
+            new ApiWrapper("client", "secret", null, new Token("1", "2"), Env.SANDBOX).toFile(snapshot);
+            assertThat(ApiWrapper.fromFile(snapshot).getToken().access, equalTo("1"));
+        } finally {
+            snapshot.delete();
+        }
+    }
+
+    @Test
+    public void shouldReadSerializedWrappers() throws Exception {
+        File ser = File.createTempFile("serialized_wrapper", "ser");
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(ser));
+        oos.writeObject(new ApiWrapper("client", "secret", null, new Token("1", "2"), Env.SANDBOX));
+        oos.close();
+        assertThat(ApiWrapper.fromFile(ser).getToken(), equalTo(new Token("1", "2")));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectInvalidSnapshots() throws Exception {
+        File snapshot = File.createTempFile("wrapper", "snapshot");
+        FileOutputStream fos = new FileOutputStream(snapshot);
+        fos.write("garbage".getBytes("US-ASCII"));
+        fos.close();
+        ApiWrapper.fromFile(snapshot);
+    }
 }
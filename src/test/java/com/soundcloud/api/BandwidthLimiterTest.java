@@ -0,0 +1,82 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class BandwidthLimiterTest {
+    @Test(timeout = 1000)
+    public void shouldNotWaitWithoutLimit() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(0);
+        for (int i = 0; i < 1000; i++) limiter.acquire(1024 * 1024);
+    }
+
+    @Test
+    public void shouldPaceWrites() throws Exception {
+        byte[] data = new byte[60 * 1024];
+        new Random().nextBytes(data);
+        ThrottledEntity entity = new ThrottledEntity(new ByteArrayEntity(data),
+                new BandwidthLimiter(100 * 1024, 10 * 1024));
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        long start = System.currentTimeMillis();
+        entity.writeTo(os);
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 10k burst, 50k at 100k/s
+        assertTrue("took " + elapsed, elapsed >= 400);
+        assertTrue("took " + elapsed, elapsed < 2000);
+        assertTrue(Arrays.equals(os.toByteArray(), data));
+    }
+
+    @Test(timeout = 2000)
+    public void shouldApplyRateChangesToRunningTransfers() throws Exception {
+        final BandwidthLimiter limiter = new BandwidthLimiter(1024, 1024);
+        Thread unlimit = new Thread() {
+            @Override public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {
+                }
+                limiter.setRate(0);
+            }
+        };
+        unlimit.start();
+        // would take 100s at 1k/s, the first acquire waits ~1s
+        for (int i = 0; i < 100; i++) limiter.acquire(1024);
+        assertThat(limiter.getRate(), is(0L));
+        unlimit.join();
+    }
+
+    @Test
+    public void shouldThrowWhenInterrupted() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(1, 1);
+        Thread.currentThread().interrupt();
+        try {
+            limiter.acquire(1000);
+            fail("expected InterruptedIOException");
+        } catch (InterruptedIOException expected) {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void shouldWrapRequestsWithLimiter() throws Exception {
+        HttpPost post = Request.to("/tracks")
+                .withFile("foo", new byte[10])
+                .setBandwidthLimiter(new BandwidthLimiter(1024))
+                .buildRequest(HttpPost.class);
+        assertThat(post.getEntity(), instanceOf(ThrottledEntity.class));
+    }
+}
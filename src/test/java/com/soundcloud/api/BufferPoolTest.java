@@ -0,0 +1,87 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class BufferPoolTest {
+    @Test
+    public void shouldReuseReleasedBuffers() throws Exception {
+        BufferPool pool = new BufferPool(16, 2, false);
+        ByteBuffer b = pool.acquire();
+        b.put((byte) 1);
+        pool.release(b);
+
+        ByteBuffer b2 = pool.acquire();
+        assertThat(b2, sameInstance(b));
+        assertThat(b2.position(), is(0));
+        assertThat(b2.remaining(), is(16));
+        assertThat(pool.getAcquired(), is(2L));
+        assertThat(pool.getHits(), is(1L));
+        assertThat(pool.getHitRate(), equalTo(0.5d));
+    }
+
+    @Test
+    public void shouldBeBounded() throws Exception {
+        BufferPool pool = new BufferPool(16, 1, false);
+        ByteBuffer b1 = pool.acquire(), b2 = pool.acquire();
+        pool.release(b1);
+        pool.release(b2);
+        assertThat(pool.getPooled(), is(1));
+        assertThat(pool.getOutstanding(), is(0L));
+    }
+
+    @Test
+    public void shouldTrackOutstandingBuffers() throws Exception {
+        BufferPool pool = new BufferPool(16, 4, false);
+        pool.acquire();
+        pool.release(pool.acquire());
+        assertThat(pool.getOutstanding(), is(1L));
+    }
+
+    @Test
+    public void shouldAllocateDirectBuffers() throws Exception {
+        BufferPool pool = new BufferPool(16, 4, true);
+        ByteBuffer b = pool.acquire();
+        assertTrue(b.isDirect());
+        pool.release(b);
+        assertThat(pool.acquire(), sameInstance(b));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectForeignBuffers() throws Exception {
+        new BufferPool(16, 4, false).release(ByteBuffer.allocate(8));
+    }
+
+    @Test
+    public void shouldRejectBuffersReleasedTwice() throws Exception {
+        BufferPool pool = new BufferPool(16, 4, false);
+        ByteBuffer b = pool.acquire();
+        pool.release(b);
+        try {
+            pool.release(b);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertThat(pool.getPooled(), is(1));
+        assertThat(pool.getOutstanding(), is(0L));
+        assertThat(pool.acquire(), sameInstance(b));
+        assertThat(pool.acquire(), not(sameInstance(b)));
+    }
+
+    @Test
+    public void shouldNotLeakBuffersWhenDecodingResponses() throws Exception {
+        long outstanding = BufferPool.HEAP.getOutstanding();
+        assertThat(Http.getString(HttpTest.response("foo".getBytes(), null, null)), equalTo("foo"));
+        assertThat(BufferPool.HEAP.getOutstanding(), is(outstanding));
+        assertThat(BufferPool.HEAP.getAcquired(), not(is(0L)));
+    }
+}
@@ -0,0 +1,111 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FileTokenCacheTest {
+    File file;
+
+    @Before
+    public void setup() throws Exception {
+        file = File.createTempFile("token", "cache");
+    }
+
+    @After
+    public void teardown() {
+        file.delete();
+    }
+
+    @Test
+    public void shouldReturnNullForEmptyFile() throws Exception {
+        assertThat(new FileTokenCache(file).read(), nullValue());
+    }
+
+    @Test
+    public void shouldWriteAndReadTokens() throws Exception {
+        Token token = new Token("access", "refresh", "* non-expiring");
+        token.expiresIn = 12345L;
+        new FileTokenCache(file).write(token);
+
+        Token read = new FileTokenCache(file).read();
+        assertThat(read, equalTo(token));
+        assertThat(read.expiresIn, is(12345L));
+    }
+
+    @Test
+    public void shouldIgnoreCorruptFiles() throws Exception {
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write("access=\\u12".getBytes("ISO-8859-1"));
+        fos.close();
+        assertThat(new FileTokenCache(file).read(), nullValue());
+    }
+
+    @Test
+    public void shouldReturnTokenRefreshedByOtherProcess() throws Exception {
+        FileTokenCache cache = new FileTokenCache(file);
+        new FileTokenCache(file).onTokenRefreshed(new Token("new", "refresh"));
+        assertThat(cache.onTokenInvalid(new Token("old", "refresh")).access, equalTo("new"));
+    }
+
+    @Test
+    public void shouldTakeLeaseWhenFileHoldsTheInvalidToken() throws Exception {
+        FileTokenCache cache = new FileTokenCache(file);
+        cache.write(new Token("old", "refresh"));
+        assertThat(cache.onTokenInvalid(new Token("old", "refresh")), nullValue());
+    }
+
+    @Test
+    public void shouldNotCacheTokensWithoutRefreshToken() throws Exception {
+        FileTokenCache cache = new FileTokenCache(file);
+        cache.onTokenRefreshed(new Token("user", "refresh"));
+        cache.onTokenRefreshed(new Token("client", null, Token.SCOPE_SIGNUP));
+        assertThat(cache.read().access, equalTo("user"));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldWaitForRefreshOfLeaseHolder() throws Exception {
+        final FileTokenCache first = new FileTokenCache(file), second = new FileTokenCache(file);
+        first.write(new Token("old", "refresh"));
+        assertThat(first.onTokenInvalid(new Token("old", "refresh")), nullValue());
+
+        final AtomicReference<Token> replacement = new AtomicReference<Token>();
+        Thread waiting = new Thread() {
+            @Override public void run() {
+                replacement.set(second.onTokenInvalid(new Token("old", "refresh")));
+            }
+        };
+        waiting.start();
+        Thread.sleep(3 * FileTokenCache.POLL_INTERVAL);
+        assertThat(replacement.get(), nullValue());
+
+        first.onTokenRefreshed(new Token("new", "refresh2"));
+        waiting.join();
+        assertThat(replacement.get().access, equalTo("new"));
+        assertThat(replacement.get().refresh, equalTo("refresh2"));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldTakeOverExpiredLease() throws Exception {
+        FileTokenCache first = new FileTokenCache(file, 200), second = new FileTokenCache(file, 200);
+        first.write(new Token("old", "refresh"));
+        assertThat(first.onTokenInvalid(new Token("old", "refresh")), nullValue());
+
+        long start = System.currentTimeMillis();
+        assertThat(second.onTokenInvalid(new Token("old", "refresh")), nullValue());
+        assertThat(System.currentTimeMillis() - start >= 150, is(true));
+
+        // second holds the lease now, its refresh is cached even without refresh token
+        second.onTokenRefreshed(new Token("new", null));
+        assertThat(first.read().access, equalTo("new"));
+    }
+}
@@ -0,0 +1,66 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FormEntityTest {
+    @Test
+    public void shouldEncodeLikeURLEncodedUtils() throws Exception {
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        params.add(new BasicNameValuePair(Params.Track.TITLE, "A title with spaces & symbols = +/?#"));
+        params.add(new BasicNameValuePair("met\u00f8l", "\u20ac 100"));
+        params.add(new BasicNameValuePair("emoji", "\ud83c\udfb5 and a lone \ud83c surrogate"));
+        params.add(new BasicNameValuePair("safe", "azAZ09-_.*~'!()"));
+        params.add(new BasicNameValuePair("empty", ""));
+        params.add(new BasicNameValuePair("control", "\n\t\u0000\u007f"));
+        assertEncoding(params);
+    }
+
+    @Test
+    public void shouldEncodeLargeParameterSets() throws Exception {
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        for (int i = 0; i < 5000; i++) {
+            params.add(new BasicNameValuePair(Params.Track.SHARED_EMAILS, "user" + i + "+tag@example.com"));
+        }
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 10000; i++) longValue.append("\u00e9\u20ac ");
+        params.add(new BasicNameValuePair("description", longValue.toString()));
+        assertEncoding(params);
+    }
+
+    @Test
+    public void shouldHandleEmptyParameters() throws Exception {
+        assertEncoding(new ArrayList<NameValuePair>());
+    }
+
+    @Test
+    public void shouldBeRepeatable() throws Exception {
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        params.add(new BasicNameValuePair("a", "b c"));
+        FormEntity entity = new FormEntity(params);
+        assertThat(entity.isRepeatable(), is(true));
+        assertThat(EntityUtils.toString(entity), equalTo("a=b+c"));
+        assertThat(EntityUtils.toString(entity), equalTo("a=b+c"));
+        assertThat(entity.getContentType().getValue(), equalTo("application/x-www-form-urlencoded"));
+    }
+
+    private static void assertEncoding(List<NameValuePair> params) throws Exception {
+        final String expected = URLEncodedUtils.format(params, "UTF-8");
+        final FormEntity entity = new FormEntity(params);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        entity.writeTo(bos);
+        assertThat(bos.toString("US-ASCII"), equalTo(expected));
+        assertThat(entity.getContentLength(), is((long) expected.length()));
+    }
+}
@@ -1,10 +1,130 @@
 package com.soundcloud.api;
 
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.message.BasicHeader;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 public class HttpTest {
     @Test
-    public void test() throws Exception {
-        // TODO
+    public void shouldDecodeMultiByteCharactersAcrossBufferBoundaries() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ApiWrapper.BUFFER_SIZE; i++) sb.append("\u00f8\u20ac");
+        final String expected = sb.toString();
+
+        assertThat(Http.getString(response(expected.getBytes("UTF-8"), null, null)), equalTo(expected));
+    }
+
+    @Test
+    public void shouldDecodeUsingCharsetFromContentType() throws Exception {
+        assertThat(Http.getString(response("met\u00f8l".getBytes("ISO-8859-1"),
+                "text/plain; charset=ISO-8859-1", null)), equalTo("met\u00f8l"));
+    }
+
+    @Test
+    public void shouldDefaultToUTF8ForUnknownCharsets() throws Exception {
+        assertThat(Http.getString(response("met\u00f8l".getBytes("UTF-8"),
+                "application/json; charset=bogus", null)), equalTo("met\u00f8l"));
+        assertThat(Http.getCharset(mock(HttpEntity.class)), equalTo(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void shouldNotTrustContentLength() throws Exception {
+        assertThat(Http.getString(response("foo".getBytes(), null, String.valueOf(Integer.MAX_VALUE))),
+                equalTo("foo"));
+        assertThat(Http.getString(response("foo".getBytes(), null, "-1")), equalTo("foo"));
+    }
+
+    @Test
+    public void shouldReturnNullWithoutContent() throws Exception {
+        assertThat(Http.getString(response(null, null, null)), equalTo(null));
+    }
+
+    @Test
+    public void shouldStreamResponseToFile() throws Exception {
+        final byte[] body = new byte[Http.TRANSFER_CHUNK_SIZE * 2 + 10];
+        new Random().nextBytes(body);
+        final List<Long> progress = new ArrayList<Long>();
+        File f = File.createTempFile("download", "test");
+        f.deleteOnExit();
+
+        long n = Http.writeTo(response(body, null, null), f, new Request.TransferProgressListener() {
+            @Override public void transferred(long amount) {
+                progress.add(amount);
+            }
+        });
+
+        assertThat(n, is((long) body.length));
+        assertThat(f.length(), is((long) body.length));
+        assertThat(progress.get(progress.size() - 1), is((long) body.length));
+        assertTrue(progress.size() >= 3);
+        assertThat(readFile(f), equalTo(body));
+    }
+
+    @Test
+    public void shouldStreamResponseToChannel() throws Exception {
+        final byte[] body = new byte[Http.TRANSFER_CHUNK_SIZE + 1];
+        new Random().nextBytes(body);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        assertThat(Http.writeTo(response(body, null, null), Channels.newChannel(bos), null), is((long) body.length));
+        assertThat(bos.toByteArray(), equalTo(body));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldCancelStreamingWhenListenerThrows() throws Exception {
+        Http.writeTo(response(new byte[100], null, null), Channels.newChannel(new ByteArrayOutputStream()),
+                new Request.TransferProgressListener() {
+                    @Override public void transferred(long amount) throws IOException {
+                        throw new IOException("cancelled");
+                    }
+                });
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        byte[] b = new byte[(int) f.length()];
+        DataInputStream dis = new DataInputStream(new FileInputStream(f));
+        try {
+            dis.readFully(b);
+        } finally {
+            dis.close();
+        }
+        return b;
+    }
+
+    static HttpResponse response(byte[] body, String contentType, String contentLength)
+            throws Exception {
+        HttpResponse resp = mock(HttpResponse.class);
+        HttpEntity ent = mock(HttpEntity.class);
+        InputStream is = body == null ? null : new ByteArrayInputStream(body);
+        when(ent.getContent()).thenReturn(is);
+        if (contentType != null) {
+            when(ent.getContentType()).thenReturn(new BasicHeader("Content-Type", contentType));
+        }
+        if (contentLength != null) {
+            when(resp.getFirstHeader("Content-Length")).thenReturn(new BasicHeader("Content-Length", contentLength));
+        }
+        when(resp.getEntity()).thenReturn(ent);
+        return resp;
     }
 }
@@ -0,0 +1,118 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class JsonReaderTest {
+    @Test
+    public void shouldReadObjectsAndArrays() throws Exception {
+        JsonReader r = reader("{\"a\": [1, -2, 3.5e2], \"b\": {\"c\": true, \"d\": null}, \"e\": \"f\"}");
+        r.beginObject();
+        assertThat(r.nextName(), equalTo("a"));
+        r.beginArray();
+        assertThat(r.nextLong(), is(1L));
+        assertThat(r.nextInt(), is(-2));
+        assertThat(r.nextDouble(), is(350d));
+        assertThat(r.hasNext(), is(false));
+        r.endArray();
+        assertThat(r.nextName(), equalTo("b"));
+        r.beginObject();
+        assertThat(r.nextName(), equalTo("c"));
+        assertThat(r.nextBoolean(), is(true));
+        assertThat(r.nextName(), equalTo("d"));
+        r.nextNull();
+        r.endObject();
+        assertThat(r.nextName(), equalTo("e"));
+        assertThat(r.nextString(), equalTo("f"));
+        r.endObject();
+        assertThat(r.peek(), is(JsonReader.Type.END_DOCUMENT));
+    }
+
+    @Test
+    public void shouldDecodeEscapes() throws Exception {
+        JsonReader r = reader("[\"a\\\"b\\\\c\\/d\\n\\u00f8\"]");
+        r.beginArray();
+        assertThat(r.nextString(), equalTo("a\"b\\c/d\n\u00f8"));
+        r.endArray();
+    }
+
+    @Test
+    public void shouldReadStringsLongerThanTheBuffer() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ApiWrapper.BUFFER_SIZE * 3; i++) sb.append(i % 10);
+        JsonReader r = reader("[\"" + sb + "\", " + sb + "]");
+        r.beginArray();
+        assertThat(r.nextString(), equalTo(sb.toString()));
+        assertThat(r.nextString(), equalTo(sb.toString()));
+        r.endArray();
+    }
+
+    @Test
+    public void shouldBeLenientWithTypes() throws Exception {
+        JsonReader r = reader("[\"12\", 13, null, null, null]");
+        r.beginArray();
+        assertThat(r.nextLong(), is(12L));
+        assertThat(r.nextString(), equalTo("13"));
+        assertThat(r.nextString(), nullValue());
+        assertThat(r.nextLong(), is(0L));
+        assertThat(r.nextBoolean(), is(false));
+        r.endArray();
+    }
+
+    @Test
+    public void shouldSkipValues() throws Exception {
+        JsonReader r = reader("{\"skip\": {\"a\": [1, {\"b\": \"}]\"}], \"c\": false}, \"keep\": 1}");
+        r.beginObject();
+        r.nextName();
+        r.skipValue();
+        assertThat(r.nextName(), equalTo("keep"));
+        assertThat(r.nextInt(), is(1));
+        r.endObject();
+    }
+
+    @Test
+    public void shouldReuseNames() throws Exception {
+        JsonReader r = reader("[{\"title\": 1}, {\"title\": 2}]");
+        r.beginArray();
+        r.beginObject();
+        String first = r.nextName();
+        r.nextInt();
+        r.endObject();
+        r.beginObject();
+        assertThat(r.nextName(), sameInstance(first));
+        assertThat(first, sameInstance("title"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldThrowOnMalformedInput() throws Exception {
+        JsonReader r = reader("{\"a\" 1}");
+        r.beginObject();
+        r.nextName();
+        r.nextInt();
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldThrowOnUnexpectedToken() throws Exception {
+        reader("[1]").beginObject();
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldThrowOnTruncatedInput() throws Exception {
+        JsonReader r = reader("[1, ");
+        r.beginArray();
+        r.nextInt();
+        r.hasNext();
+    }
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(new StringReader(json));
+    }
+}
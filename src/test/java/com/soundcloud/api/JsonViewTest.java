@@ -0,0 +1,121 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class JsonViewTest {
+    static final String TRACK = "{\"id\": 1234, \"title\": \"Flute \\u00f8 \\\"live\\\"\", \"bpm\": 120.5," +
+            " \"user\": {\"id\": 5, \"username\": \"che\"}, \"streamable\": true, \"label_id\": null," +
+            " \"tags\": [\"jazz\", \"flute\", {\"nested\": [1, 2]}], \"m\u00f8\": \"t\u00f8\"}";
+
+    @Test
+    public void shouldAccessMembers() throws Exception {
+        JsonView v = view(TRACK);
+        assertTrue(v.isObject());
+        assertThat(v.length(), is(8));
+        assertThat(v.getLong("id", -1), is(1234L));
+        assertThat(v.getInt("missing", -1), is(-1));
+        assertThat(v.getString("title"), equalTo("Flute \u00f8 \"live\""));
+        assertThat(v.getDouble("bpm", 0), is(120.5d));
+        assertThat(v.getBoolean("streamable", false), is(true));
+        assertThat(v.getString("label_id"), nullValue());
+        assertThat(v.getLong("label_id", -1), is(-1L));
+        assertThat(v.getString("m\u00f8"), equalTo("t\u00f8"));
+        assertTrue(v.has("user"));
+        assertFalse(v.has("use"));
+        assertFalse(v.has("username"));
+    }
+
+    @Test
+    public void shouldAccessNestedValues() throws Exception {
+        JsonView v = view(TRACK);
+        assertThat(v.get("user").getString("username"), equalTo("che"));
+        JsonView tags = v.get("tags");
+        assertTrue(tags.isArray());
+        assertThat(tags.length(), is(3));
+        assertThat(tags.get(1).asString(), equalTo("flute"));
+        assertThat(tags.get(2).get("nested").get(1).asLong(0), is(2L));
+        assertThat(tags.get(3), nullValue());
+        assertThat(tags.get(2).toString(), equalTo("{\"nested\": [1, 2]}"));
+    }
+
+    @Test
+    public void shouldHandleScalarDocuments() throws Exception {
+        assertThat(view("  \"foo\" ").asString(), equalTo("foo"));
+        assertThat(view("-42").asLong(0), is(-42L));
+        assertThat(view("1e3").asLong(0), is(1000L));
+        assertTrue(view("null").isNull());
+        assertThat(view("[]").length(), is(0));
+        assertThat(view("{}").length(), is(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldThrowOnMalformedDocument() throws Exception {
+        view("{\"a\": [1, 2}");
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldThrowOnTrailingData() throws Exception {
+        view("{} {}");
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldThrowOnTruncatedDocument() throws Exception {
+        view("{\"a\": \"b");
+    }
+
+    @Test
+    public void shouldRejectDeeplyNestedDocuments() throws Exception {
+        StringBuilder ok = new StringBuilder();
+        for (int i = 0; i < JsonView.Index.MAX_DEPTH; i++) ok.append('[');
+        for (int i = 0; i < JsonView.Index.MAX_DEPTH; i++) ok.append(']');
+        assertThat(view(ok.toString()).length(), is(1));
+
+        StringBuilder deep = new StringBuilder();
+        for (int i = 0; i < 100000; i++) deep.append('[');
+        try {
+            view(deep.toString());
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void shouldIndexLargeDocuments() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 10000; i++) json.append(i == 0 ? "" : ",").append(i);
+        JsonView view = view(json.append(']').toString());
+        assertThat(view.length(), is(10000));
+        assertThat(view.get(9999).asLong(0), is(9999L));
+    }
+
+    @Test
+    public void shouldCreateViewFromResponse() throws Exception {
+        HttpResponse resp = mock(HttpResponse.class);
+        HttpEntity ent = mock(HttpEntity.class);
+        when(ent.getContent()).thenReturn(new ByteArrayInputStream("{\"a\": \"m\u00f8\"}".getBytes("ISO-8859-1")));
+        when(ent.getContentType()).thenReturn(new BasicHeader("Content-Type", "application/json; charset=ISO-8859-1"));
+        when(resp.getEntity()).thenReturn(ent);
+
+        assertThat(Http.getJsonView(resp).getString("a"), equalTo("m\u00f8"));
+    }
+
+    private static JsonView view(String json) throws IOException {
+        return JsonView.parse(json.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class MemoryTokenStoreTest {
+    MemoryTokenStore store = new MemoryTokenStore();
+
+    @Test
+    public void shouldStoreTokensPerUser() throws Exception {
+        Token alice = new Token("a", "ra"), bob = new Token("b", "rb");
+        store.put("alice", alice);
+        store.put("bob", bob);
+        assertThat(store.get("alice"), equalTo(alice));
+        assertThat(store.get("bob"), equalTo(bob));
+        assertThat(store.get("carol"), nullValue());
+        assertThat(store.size(), is(2));
+    }
+
+    @Test
+    public void shouldReplaceAndRemoveTokens() throws Exception {
+        store.put("alice", new Token("a", "ra"));
+        Token replaced = new Token("a2", "ra2");
+        store.put("alice", replaced);
+        assertThat(store.get("alice"), equalTo(replaced));
+
+        assertThat(store.remove("alice"), equalTo(replaced));
+        assertThat(store.get("alice"), nullValue());
+        assertThat(store.remove("alice"), nullValue());
+    }
+
+    @Test
+    public void puttingNullShouldRemoveTheUser() throws Exception {
+        store.put("alice", new Token("a", "ra"));
+        store.put("alice", null);
+        assertThat(store.get("alice"), nullValue());
+        assertThat(store.size(), is(0));
+    }
+
+    @Test
+    public void shouldShareScopeStrings() throws Exception {
+        store.put("alice", new Token("a", "ra", new String("*")));
+        store.put("bob", new Token("b", "rb", new String("*")));
+        assertThat(store.get("alice").scope, equalTo("*"));
+        assertThat(store.get("alice").scope, sameInstance(store.get("bob").scope));
+    }
+
+    @Test
+    public void shouldNotModifyTokensPassedIn() throws Exception {
+        String scope = new String("*");
+        store.put("alice", new Token("a", "ra", new String("*")));
+        Token bob = new Token("b", "rb", scope);
+        bob.expiresIn = 12345L;
+        store.put("bob", bob);
+        assertThat(bob.scope, sameInstance(scope));
+        assertThat(store.get("bob").expiresIn, is(12345L));
+
+        bob.access = "changed";
+        assertThat(store.get("bob").access, equalTo("b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAcceptNullUsers() throws Exception {
+        store.put(null, new Token("a", "ra"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidConcurrencyLevel() throws Exception {
+        new MemoryTokenStore(100, 0);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldHandleConcurrentUpdates() throws Exception {
+        final MemoryTokenStore store = new MemoryTokenStore(10000, 16);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        store.put("user" + thread + "-" + j, new Token("a" + j, "r" + j));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) t.join();
+        assertThat(store.size(), is(8000));
+        assertThat(store.get("user7-999").access, equalTo("a999"));
+    }
+}
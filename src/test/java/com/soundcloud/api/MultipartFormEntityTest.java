@@ -0,0 +1,97 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntity;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class MultipartFormEntityTest {
+    @Test
+    public void shouldProduceSameOutputAsHttpMime() throws Exception {
+        File f = File.createTempFile("multipart", "test");
+        try {
+            FileOutputStream fos = new FileOutputStream(f);
+            fos.write("file content".getBytes());
+            fos.close();
+
+            AbstractContentBody[] bodies = {
+                new Request.FileChannelBody(f),
+                new Request.ByteBufferBody(ByteBuffer.wrap("buffer".getBytes())),
+                new Request.StringBodyNoHeaders("value")
+            };
+            String[] names = { "track[asset_data]", "track[artwork_data]", "track[title]" };
+
+            MultipartFormEntity entity = new MultipartFormEntity();
+            MultipartEntity expected = new MultipartEntity(HttpMultipartMode.STRICT, entity.getBoundary(), null);
+            for (int i = 0; i < bodies.length; i++) {
+                entity.addPart(names[i], bodies[i]);
+                expected.addPart(names[i], bodies[i]);
+            }
+
+            assertThat(entity.getContentType().getValue(), equalTo(expected.getContentType().getValue()));
+            assertThat(entity.getContentLength(), is(expected.getContentLength()));
+            assertTrue(Arrays.equals(write(entity), write(expected)));
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void shouldBeRepeatableWithExactLength() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap("xxbufferxx".getBytes());
+        buffer.position(2).limit(8);
+
+        MultipartFormEntity entity = new MultipartFormEntity();
+        entity.addPart("data", new Request.ByteBufferBody(buffer));
+        entity.addPart("title", new Request.StringBodyNoHeaders("t\u00eftle"));
+
+        assertTrue(entity.isRepeatable());
+        byte[] first = write(entity);
+        assertThat((long) first.length, is(entity.getContentLength()));
+        assertTrue(Arrays.equals(write(entity), first));
+        assertTrue(new String(first, "UTF-8").contains("\r\n\r\nbuffer\r\n"));
+    }
+
+    @Test
+    public void shouldEncodeFilenamesAsUtf8() throws Exception {
+        File f = File.createTempFile("caf\u00e9", "test");
+        try {
+            MultipartFormEntity entity = new MultipartFormEntity();
+            entity.addPart("file", new Request.FileChannelBody(f));
+            String written = new String(write(entity), "UTF-8");
+            assertTrue(written.contains("filename=\"" + f.getName() + "\""));
+            assertThat((long) write(entity).length, is(entity.getContentLength()));
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void shouldBuildMultipartRequests() throws Exception {
+        HttpPost post = Request.to("/tracks")
+                .with("title", "foo")
+                .withFile("data", "bar".getBytes())
+                .buildRequest(HttpPost.class);
+        assertTrue(post.getEntity() instanceof MultipartFormEntity);
+        assertTrue(post.getEntity().isRepeatable());
+        assertThat((long) write((MultipartFormEntity) post.getEntity()).length, is(post.getEntity().getContentLength()));
+    }
+
+    private static byte[] write(org.apache.http.HttpEntity entity) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        entity.writeTo(bos);
+        return bos.toByteArray();
+    }
+}
@@ -8,22 +8,34 @@ import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.*;
 
 import org.apache.http.Header;
+import org.apache.http.HttpRequest;
 import org.apache.http.auth.AUTH;
 import org.apache.http.auth.AuthenticationException;
 import org.apache.http.auth.MalformedChallengeException;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpRequest;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class OAuth2SchemeTest {
     OAuth2Scheme scheme;
     CloudAPI api;
+    ApiWrapper wrapper;
 
     @Before
     public void setup() {
         api = mock(CloudAPI.class);
+        wrapper = mock(ApiWrapper.class);
         scheme = new OAuth2Scheme(api, null);
     }
 
@@ -82,6 +94,162 @@ public class OAuth2SchemeTest {
         scheme.authenticate(null, null);
     }
 
+    @Test(timeout = 5000)
+    public void concurrentAuthenticationsShouldShareOneRefresh() throws Exception {
+        final AtomicInteger refreshes = new AtomicInteger();
+        final CountDownLatch refreshing = new CountDownLatch(1), release = new CountDownLatch(1);
+        final AtomicReference<Token> token = new AtomicReference<Token>(new Token("old", "r3fr3sh"));
+        when(api.getToken()).thenAnswer(new Answer<Token>() {
+            @Override public Token answer(InvocationOnMock invocation) {
+                return token.get();
+            }
+        });
+        when(api.refreshToken()).thenAnswer(new Answer<Token>() {
+            @Override public Token answer(InvocationOnMock invocation) throws Throwable {
+                refreshes.incrementAndGet();
+                refreshing.countDown();
+                release.await();
+                token.set(new Token("new", "r3fr3sh"));
+                return token.get();
+            }
+        });
+
+        final OAuth2Scheme.Factory factory = new OAuth2Scheme.Factory(api);
+        final List<Header> headers = Collections.synchronizedList(new ArrayList<Header>());
+        Thread[] threads = new Thread[3];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    try {
+                        headers.add(factory.newInstance(null).authenticate(null, request("old")));
+                    } catch (AuthenticationException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+            if (i == 0) refreshing.await();
+        }
+        Thread.sleep(50);
+        release.countDown();
+        for (Thread t : threads) t.join();
+
+        assertThat(refreshes.get(), is(1));
+        assertThat(headers.size(), is(3));
+        for (Header h : headers) assertThat(h.getValue(), equalTo("OAuth new"));
+    }
+
+    @Test(timeout = 5000)
+    public void refreshesOfDifferentWrappersShouldNotBlockEachOther() throws Exception {
+        final CountDownLatch refreshing = new CountDownLatch(1), release = new CountDownLatch(1);
+        when(api.refreshToken()).thenAnswer(new Answer<Token>() {
+            @Override public Token answer(InvocationOnMock invocation) throws Throwable {
+                refreshing.countDown();
+                release.await();
+                return new Token("1", "2");
+            }
+        });
+        Thread blocked = new Thread() {
+            @Override public void run() {
+                try {
+                    scheme.authenticate(null, request("old"));
+                } catch (AuthenticationException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        blocked.start();
+        refreshing.await();
+
+        CloudAPI other = mock(CloudAPI.class);
+        when(other.refreshToken()).thenReturn(new Token("other", "2"));
+        assertThat(new OAuth2Scheme(other, null).authenticate(null, request("old")).getValue(),
+                equalTo("OAuth other"));
+
+        release.countDown();
+        blocked.join();
+    }
+
+    @Test
+    public void shouldNotRefreshWhenTokenWasAlreadyReplaced() throws Exception {
+        when(api.getToken()).thenReturn(new Token("new", "r3fr3sh"));
+        assertThat(scheme.authenticate(null, request("old")).getValue(), equalTo("OAuth new"));
+        verify(api, never()).invalidateToken();
+        verify(api, never()).refreshToken();
+    }
+
+    @Test
+    public void shouldRefreshTheStoredTokenOfTheUser() throws Exception {
+        TokenRefresher refresher = new TokenRefresher(wrapper);
+        TokenStore store = new MemoryTokenStore();
+        Token stored = new Token("old", "r3fr3sh");
+        store.put("alice", stored);
+        refresher.setTokenStore(store);
+        when(wrapper.refreshToken(stored)).thenReturn(new Token("new", "r3fr3sh2"));
+
+        Header header = new OAuth2Scheme(refresher, null).authenticate(null, request("old", "alice"));
+        assertThat(header.getValue(), equalTo("OAuth new"));
+        assertThat(store.get("alice").access, equalTo("new"));
+        verify(wrapper, never()).invalidateToken();
+        verify(wrapper, never()).refreshToken();
+    }
+
+    @Test
+    public void shouldNotRefreshStoredTokenWhichWasAlreadyReplaced() throws Exception {
+        TokenRefresher refresher = new TokenRefresher(wrapper);
+        TokenStore store = new MemoryTokenStore();
+        store.put("alice", new Token("new", "r3fr3sh"));
+        refresher.setTokenStore(store);
+
+        Header header = new OAuth2Scheme(refresher, null).authenticate(null, request("old", "alice"));
+        assertThat(header.getValue(), equalTo("OAuth new"));
+        verify(wrapper, never()).refreshToken(any(Token.class));
+    }
+
+    @Test
+    public void shouldRemoveUserWhenRefreshTokenIsRejected() throws Exception {
+        TokenRefresher refresher = new TokenRefresher(wrapper);
+        TokenStore store = new MemoryTokenStore();
+        store.put("alice", new Token("old", "r3fr3sh"));
+        refresher.setTokenStore(store);
+        when(wrapper.refreshToken(any(Token.class))).thenThrow(new CloudAPI.InvalidTokenException(401, "invalid_grant"));
+        try {
+            new OAuth2Scheme(refresher, null).authenticate(null, request("old", "alice"));
+        } catch (AuthenticationException expected) {
+            assertThat(store.get("alice"), nullValue());
+            return;
+        }
+        throw new AssertionError("expected AuthenticationException");
+    }
+
+    @Test(expected = AuthenticationException.class)
+    public void shouldFailForUnknownUsers() throws Exception {
+        TokenRefresher refresher = new TokenRefresher(wrapper);
+        refresher.setTokenStore(new MemoryTokenStore());
+        new OAuth2Scheme(refresher, null).authenticate(null, request("old", "alice"));
+    }
+
+    @Test(expected = AuthenticationException.class)
+    public void shouldRequireApiWrapperForTokenStores() throws Exception {
+        TokenRefresher refresher = new TokenRefresher(api);
+        TokenStore store = new MemoryTokenStore();
+        store.put("alice", new Token("old", "r3fr3sh"));
+        refresher.setTokenStore(store);
+        new OAuth2Scheme(refresher, null).authenticate(null, request("old", "alice"));
+    }
+
+    private static HttpRequest request(String token, String user) {
+        HttpRequest request = request(token);
+        request.getParams().setParameter(Request.USER_PARAM, user);
+        return request;
+    }
+
+    private static HttpRequest request(String token) {
+        HttpRequest request = new BasicHttpRequest("GET", "/foo");
+        request.addHeader(AUTH.WWW_AUTH_RESP, "OAuth " + token);
+        return request;
+    }
+
     @Test
     public void processChallengeShouldParseHeaderCorrectly() throws Exception {
         scheme.processChallenge(
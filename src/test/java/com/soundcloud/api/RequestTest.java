@@ -11,22 +11,50 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.auth.AUTH;
+import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpOptions;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.entity.mime.MultipartEntity;
+import org.apache.http.message.BasicNameValuePair;
 import org.hamcrest.CoreMatchers;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.IllegalFormatException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 public class RequestTest {
+    @Test
+    public void shouldBuildRequestsOfAllMethods() throws Exception {
+        assertThat(Request.to("/foo").buildRequest(HttpGet.class).getMethod(), equalTo("GET"));
+        assertThat(Request.to("/foo").buildRequest(HttpPost.class).getMethod(), equalTo("POST"));
+        assertThat(Request.to("/foo").buildRequest(HttpPut.class).getMethod(), equalTo("PUT"));
+        assertThat(Request.to("/foo").buildRequest(HttpDelete.class).getMethod(), equalTo("DELETE"));
+        assertThat(Request.to("/foo").buildRequest(HttpHead.class).getMethod(), equalTo("HEAD"));
+        assertThat(Request.to("/foo").buildRequest(HttpOptions.class).getMethod(), equalTo("OPTIONS"));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void shouldThrowIllegalArgumentForNonEvenParams() throws Exception {
         new Request().with("1", 2, "3");
@@ -109,7 +137,7 @@ public class RequestTest {
                 .withFile("foo", f)
                 .buildRequest(HttpPost.class);
 
-        assertTrue(request.getEntity() instanceof MultipartEntity);
+        assertTrue(request.getEntity() instanceof MultipartFormEntity);
 
         ByteArrayOutputStream os = new ByteArrayOutputStream();
         request.getEntity().writeTo(os);
@@ -137,7 +165,7 @@ public class RequestTest {
                 .withFile("testing", "foo".getBytes())
                 .buildRequest(HttpPost.class);
 
-        assertTrue(request.getEntity() instanceof MultipartEntity);
+        assertTrue(request.getEntity() instanceof MultipartFormEntity);
 
         ByteArrayOutputStream os = new ByteArrayOutputStream();
         request.getEntity().writeTo(os);
@@ -149,6 +177,319 @@ public class RequestTest {
         assertThat(encoded, containsString("testing"));
     }
 
+    @Test
+    public void shouldWriteDirectByteBuffers() throws Exception {
+        ByteBuffer data = ByteBuffer.allocateDirect(ApiWrapper.BUFFER_SIZE * 2 + 3);
+        while (data.hasRemaining()) data.put((byte) 'x');
+        data.flip();
+
+        Request.ByteBufferBody body = new Request.ByteBufferBody(data);
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            body.writeTo(os);
+            assertThat(os.size(), is(data.capacity()));
+        }
+        assertThat(data.position(), is(0));
+    }
+
+    @Test
+    public void shouldOnlyWriteRemainingBytesOfBuffers() throws Exception {
+        ByteBuffer heap = ByteBuffer.wrap("xxabcdefyy".getBytes());
+        heap.position(2);
+        ByteBuffer slice = heap.slice();
+        slice.limit(6);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(10);
+        direct.put("xxabcdefyy".getBytes());
+        direct.position(2).limit(8);
+
+        for (ByteBuffer data : new ByteBuffer[] { slice, direct }) {
+            Request.ByteBufferBody body = new Request.ByteBufferBody(data);
+            assertThat(body.getContentLength(), is(6L));
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            body.writeTo(os);
+            assertThat(os.toString(), equalTo("abcdef"));
+            assertThat(data.remaining(), is(6));
+        }
+    }
+
+    @Test
+    public void shouldWriteMappedFiles() throws Exception {
+        File f = File.createTempFile("mapped", "test");
+        try {
+            byte[] data = new byte[ApiWrapper.BUFFER_SIZE * 3 + 7];
+            new Random().nextBytes(data);
+            FileOutputStream fos = new FileOutputStream(f);
+            fos.write(data);
+            fos.close();
+
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            ByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 5, data.length - 10);
+            raf.close();
+
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            new Request.ByteBufferBody(mapped).writeTo(os);
+            assertTrue(Arrays.equals(os.toByteArray(), Arrays.copyOfRange(data, 5, data.length - 5)));
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void shouldTransferFiles() throws Exception {
+        File f = File.createTempFile("transfer", "test");
+        try {
+            byte[] data = new byte[ApiWrapper.BUFFER_SIZE * 3 + 7];
+            new Random().nextBytes(data);
+            FileOutputStream fos = new FileOutputStream(f);
+            fos.write(data);
+            fos.close();
+
+            Request.FileChannelBody body = new Request.FileChannelBody(f);
+            assertThat(body.getContentLength(), is((long) data.length));
+            assertThat(body.getFilename(), equalTo(f.getName()));
+            for (int i = 0; i < 2; i++) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                body.writeTo(os);
+                assertTrue(Arrays.equals(os.toByteArray(), data));
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void shouldComputeContentLengthFromParts() throws Exception {
+        assertThat(Request.to("/tracks").getContentLength(), is(0L));
+        assertThat(Request.to("/tracks").with("a", "b c").getContentLength(), is(5L)); // a=b+c
+
+        Request request = Request.to("/tracks").with("title", "foo")
+                .withFile("a", new byte[100])
+                .withFile("b", new ByteArrayInputStream(new byte[50]), 50);
+        assertThat(request.getContentLength(), is(150L));
+        assertFalse(request.isRepeatable());
+        assertThat(request.withFile("c", new ByteArrayInputStream(new byte[1]), -1).getContentLength(), is(-1L));
+        assertTrue(Request.to("/tracks").withFile("a", new byte[100]).isRepeatable());
+    }
+
+    @Test
+    public void shouldSendAnnouncedLengthOfChangedFiles() throws Exception {
+        File f = File.createTempFile("transfer", "test");
+        try {
+            byte[] data = new byte[100];
+            new Random().nextBytes(data);
+            FileOutputStream fos = new FileOutputStream(f);
+            fos.write(data);
+            fos.close();
+            Request.FileChannelBody body = new Request.FileChannelBody(f);
+
+            fos = new FileOutputStream(f, true);
+            fos.write(new byte[50]);
+            fos.close();
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            body.writeTo(os);
+            assertTrue(Arrays.equals(os.toByteArray(), data));
+
+            fos = new FileOutputStream(f);
+            fos.write(data, 0, 10);
+            fos.close();
+            try {
+                body.writeTo(new ByteArrayOutputStream());
+                fail("expected IOException");
+            } catch (IOException expected) {
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void shouldStreamUploadsOfUnknownLength() throws Exception {
+        byte[] data = new byte[ApiWrapper.BUFFER_SIZE * 3 + 5];
+        new Random().nextBytes(data);
+        HttpPost request = Request.to("/tracks")
+                .with("title", "foo")
+                .withFile("data", new ByteArrayInputStream(data), -1)
+                .buildRequest(HttpPost.class);
+
+        HttpEntity entity = request.getEntity();
+        assertTrue(entity.isChunked());
+        assertFalse(entity.isRepeatable());
+        assertThat(entity.getContentLength(), is(-1L));
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        entity.writeTo(os);
+        byte[] written = os.toByteArray();
+        assertThat(written.length > data.length, is(true));
+        String encoded = new String(written, "ISO-8859-1");
+        assertThat(encoded, containsString(new String(data, "ISO-8859-1")));
+    }
+
+    @Test
+    public void shouldStreamUploadsOfKnownLength() throws Exception {
+        HttpPost request = Request.to("/tracks")
+                .withFile("data", new ByteArrayInputStream("0123456789".getBytes()), 4)
+                .buildRequest(HttpPost.class);
+
+        HttpEntity entity = request.getEntity();
+        assertFalse(entity.isChunked());
+        assertFalse(entity.isRepeatable());
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        entity.writeTo(os);
+        assertThat((long) os.size(), is(entity.getContentLength()));
+        assertThat(os.toString(), containsString("\r\n\r\n0123\r\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailWhenStreamIsShorterThanLength() throws Exception {
+        Request.to("/tracks")
+                .withFile("data", new ByteArrayInputStream("0123".getBytes()), 10)
+                .buildRequest(HttpPost.class)
+                .getEntity().writeTo(new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void shouldComputeDigestsWhileUploading() throws Exception {
+        byte[] data = new byte[ApiWrapper.BUFFER_SIZE * 2 + 17];
+        new Random().nextBytes(data);
+        File f = File.createTempFile("digest", "test");
+        try {
+            FileOutputStream fos = new FileOutputStream(f);
+            fos.write(data);
+            fos.close();
+
+            MessageDigest md5 = MessageDigest.getInstance("MD5"), sha = MessageDigest.getInstance("SHA-256"),
+                          bufferMd5 = MessageDigest.getInstance("MD5"), streamMd5 = MessageDigest.getInstance("MD5");
+            Request request = Request.to("/tracks")
+                    .with("title", "foo")
+                    .withFile("asset", f)
+                    .withDigest("asset", md5)
+                    .withDigest("asset", sha)
+                    .withFile("artwork", "artwork".getBytes())
+                    .withDigest("artwork", bufferMd5)
+                    .withFile("stream", new ByteArrayInputStream(data), -1)
+                    .withDigest("stream", streamMd5);
+
+            HttpEntity entity = new Request(request).buildRequest(HttpPost.class).getEntity();
+            entity.writeTo(new ByteArrayOutputStream());
+            assertFalse(entity.isRepeatable());
+
+            assertTrue(Arrays.equals(md5.digest(), MessageDigest.getInstance("MD5").digest(data)));
+            assertTrue(Arrays.equals(sha.digest(), MessageDigest.getInstance("SHA-256").digest(data)));
+            assertTrue(Arrays.equals(bufferMd5.digest(), MessageDigest.getInstance("MD5").digest("artwork".getBytes())));
+            assertTrue(Arrays.equals(streamMd5.digest(), MessageDigest.getInstance("MD5").digest(data)));
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void shouldResetDigestWhenPartIsWrittenAgain() throws Exception {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        HttpEntity entity = Request.to("/tracks")
+                .withFile("artwork", "artwork".getBytes())
+                .withDigest("artwork", md5)
+                .buildRequest(HttpPost.class).getEntity();
+        assertTrue(entity.isRepeatable());
+        entity.writeTo(new ByteArrayOutputStream());
+        entity.writeTo(new ByteArrayOutputStream());
+        assertTrue(Arrays.equals(md5.digest(), MessageDigest.getInstance("MD5").digest("artwork".getBytes())));
+    }
+
+    @Test
+    public void shouldAddHeaders() throws Exception {
+        Request r = Request.to("/foo")
+                .withHeader("Content-Range", "bytes 0-1/2")
+                .withHeader("content-range", "bytes */2")
+                .withHeader("X-Foo", "bar")
+                .withHeader("X-Foo", null);
+        HttpPut put = new Request(r).buildRequest(HttpPut.class);
+        assertThat(put.getHeaders("Content-Range").length, is(1));
+        assertThat(put.getFirstHeader("Content-Range").getValue(), equalTo("bytes */2"));
+        assertThat(put.getFirstHeader("X-Foo"), nullValue());
+    }
+
+    /** Writes the given number of chunks of 1000 bytes */
+    private static HttpEntity chunks(final int n) {
+        return new AbstractHttpEntity() {
+            @Override public boolean isRepeatable() { return true; }
+            @Override public long getContentLength() { return n * 1000; }
+            @Override public InputStream getContent() { throw new UnsupportedOperationException(); }
+            @Override public boolean isStreaming() { return false; }
+            @Override public void writeTo(OutputStream out) throws IOException {
+                for (int i = 0; i < n; i++) out.write(new byte[1000]);
+            }
+        };
+    }
+
+    @Test
+    public void shouldThrottleProgressByBytes() throws Exception {
+        final List<Long> progress = new ArrayList<Long>();
+        Request.TransferProgressListener listener = new Request.TransferProgressListener() {
+            @Override public void transferred(long amount) {
+                progress.add(amount);
+            }
+        };
+        new CountingMultipartEntity(chunks(10), listener, 3000, 0).writeTo(new ByteArrayOutputStream());
+        assertThat(progress, equalTo(Arrays.asList(3000L, 6000L, 9000L, 10000L)));
+
+        progress.clear();
+        new CountingMultipartEntity(chunks(3), listener, 0, 0).writeTo(new ByteArrayOutputStream());
+        assertThat(progress, equalTo(Arrays.asList(1000L, 2000L, 3000L)));
+    }
+
+    @Test
+    public void shouldThrottleProgressByTime() throws Exception {
+        final List<Long> progress = new ArrayList<Long>();
+        new CountingMultipartEntity(chunks(100), new Request.TransferProgressListener() {
+            @Override public void transferred(long amount) {
+                progress.add(amount);
+            }
+        }, 0, 60 * 1000).writeTo(new ByteArrayOutputStream());
+        assertThat(progress, equalTo(Arrays.asList(100000L)));
+    }
+
+    @Test
+    public void shouldReportThroughput() throws Exception {
+        final List<Request.TransferProgress> progress = new ArrayList<Request.TransferProgress>();
+        final List<Long> transferred = new ArrayList<Long>();
+        new CountingMultipartEntity(chunks(4), new Request.ThroughputListener() {
+            @Override public void progress(Request.TransferProgress p) throws IOException {
+                progress.add(p);
+                transferred.add(p.getTransferred());
+                assertThat(p.getTotal(), is(4000L));
+                assertTrue(p.getEta() >= -1);
+            }
+            @Override public void transferred(long amount) {
+                fail("only progress should be called");
+            }
+        }, 2000, 0).writeTo(new ByteArrayOutputStream());
+
+        assertThat(transferred, equalTo(Arrays.asList(2000L, 4000L)));
+        assertSame(progress.get(0), progress.get(1));
+        assertThat(progress.get(1).getEta(), is(0L));
+    }
+
+    @Test
+    public void shouldNotifyProgressOfEveryWriteByDefault() throws Exception {
+        final List<Long> progress = new ArrayList<Long>();
+        new CountingMultipartEntity(chunks(3), new Request.TransferProgressListener() {
+            @Override public void transferred(long amount) {
+                progress.add(amount);
+            }
+        }).writeTo(new ByteArrayOutputStream());
+        assertThat(progress, equalTo(Arrays.asList(1000L, 2000L, 3000L)));
+    }
+
+    @Test
+    public void shouldCopyProgressGranularity() throws Exception {
+        Request r = Request.to("/foo")
+                .withFile("foo", new byte[3000])
+                .setProgressGranularity(1000, 0)
+                .setProgressListener(mock(Request.TransferProgressListener.class));
+        assertTrue(new Request(r).buildRequest(HttpPost.class).getEntity() instanceof CountingMultipartEntity);
+    }
+
     @Test
     public void shouldIncludeAnyEntityInRequest() throws Exception {
         HttpPost request = Request.to("/too")
@@ -232,6 +573,74 @@ public class RequestTest {
              equalTo("/"));
     }
 
+    @Test
+    public void shouldParseQueryStringsLikeBefore() throws Exception {
+        String[] queries = {
+                "", "a", "a=", "=b", "a=b", "a=b&", "&a=b", "a=b&&c=d", "a=b=c", "a&b=c&d",
+                "a+b=c+d", "%41%42=%e2%82%ac", "x=%C3%B8+%2B", "next=%2Fme%2Factivities%3Fcursor%3D1",
+                "bad=%C3", "mixed=a%20b+c%2", "%=a", "a=%", "a=%4", "a=%zz", "a=b%", "q=%E2%82",
+        };
+        for (String query : queries) {
+            String resource = "/foo?" + query;
+            List<NameValuePair> expected = null;
+            try {
+                expected = legacyParse(query);
+            } catch (IllegalArgumentException e) {
+                // malformed escape, expected to fail the same way
+            }
+            try {
+                List<NameValuePair> actual = new ArrayList<NameValuePair>();
+                for (NameValuePair pair : new Request(resource)) actual.add(pair);
+                assertThat(query, actual, equalTo(expected));
+            } catch (IllegalArgumentException e) {
+                assertThat(query, expected, nullValue());
+            }
+        }
+    }
+
+    @Test
+    public void shouldMatchURLDecoderOnRandomInput() throws Exception {
+        Random random = new Random(42);
+        String alphabet = "ab=&+%2F9e\u00f8";
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(12); j > 0; j--) sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            String s = sb.toString();
+            String expected;
+            try {
+                expected = URLDecoder.decode(s, "UTF-8");
+            } catch (IllegalArgumentException e) {
+                expected = null;
+            }
+            try {
+                assertThat(s, Request.decode(s, 0, s.length()), equalTo(expected));
+            } catch (IllegalArgumentException e) {
+                assertThat(s, expected, nullValue());
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotDecodeQueryOfURIsTwice() throws Exception {
+        Request request = new Request(URI.create("https://api.soundcloud.com/me/activities?cursor=a%2Bb%26c&limit=50"));
+        assertThat(request.getResource(), equalTo("/me/activities"));
+        Iterator<NameValuePair> it = request.iterator();
+        assertThat(it.next(), equalTo((NameValuePair) new BasicNameValuePair("cursor", "a+b&c")));
+        assertThat(it.next(), equalTo((NameValuePair) new BasicNameValuePair("limit", "50")));
+    }
+
+    /** the previous parser, split + URLDecoder */
+    private static List<NameValuePair> legacyParse(String query) throws Exception {
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        for (String s : query.split("&")) {
+            String[] kv = s.split("=", 2);
+            if (kv.length == 2) {
+                params.add(new BasicNameValuePair(URLDecoder.decode(kv[0], "UTF-8"), URLDecoder.decode(kv[1], "UTF-8")));
+            }
+        }
+        return params;
+    }
+
     @Test
     public void shouldHaveCopyConstructor() {
         Request orig = new Request("/foo").with("1", 2, "3",4);
@@ -0,0 +1,218 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class ResumableUploadTest {
+    static final int CHUNK = 1000;
+
+    File file, checkpoint;
+    byte[] data;
+    CloudAPI api;
+    StubServer server;
+
+    @Before
+    public void setup() throws Exception {
+        file = File.createTempFile("upload", "test");
+        checkpoint = new File(file.getPath() + ".checkpoint");
+        data = new byte[CHUNK * 4 + 123];
+        new Random().nextBytes(data);
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(data);
+        fos.close();
+
+        server = new StubServer();
+        api = mock(CloudAPI.class);
+        when(api.put(any(Request.class))).thenAnswer(server);
+    }
+
+    @After
+    public void teardown() {
+        file.delete();
+        checkpoint.delete();
+    }
+
+    private ResumableUpload upload() {
+        return new ResumableUpload(api, Request.to("/uploads/1"), file, checkpoint).setChunkSize(CHUNK);
+    }
+
+    @Test
+    public void shouldUploadInChunks() throws Exception {
+        final List<Long> progress = new ArrayList<Long>();
+        HttpResponse resp = new ResumableUpload(api, Request.to("/uploads/1")
+                .setProgressListener(new Request.TransferProgressListener() {
+                    @Override public void transferred(long amount) {
+                        progress.add(amount);
+                    }
+                }), file, checkpoint).setChunkSize(CHUNK).upload();
+
+        assertThat(resp.getStatusLine().getStatusCode(), is(201));
+        assertTrue(Arrays.equals(server.received(), data));
+        assertThat(server.ranges, equalTo(Arrays.asList(
+                "bytes 0-999/4123", "bytes 1000-1999/4123", "bytes 2000-2999/4123",
+                "bytes 3000-3999/4123", "bytes 4000-4122/4123")));
+        assertThat(progress, equalTo(Arrays.asList(1000L, 2000L, 3000L, 4000L, 4123L)));
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    public void shouldResumeFromCheckpointAfterFailure() throws Exception {
+        server.failAt = 2;
+        try {
+            upload().upload();
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+        assertTrue(checkpoint.exists());
+
+        server.ranges.clear();
+        ResumableUpload resumed = upload();
+        assertThat(resumed.upload().getStatusLine().getStatusCode(), is(201));
+        assertThat(resumed.getOffset(), is((long) data.length));
+        assertThat(server.ranges.get(0), equalTo("bytes 2000-2999/4123"));
+        assertTrue(Arrays.equals(server.received(), data));
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    public void shouldWriteCheckpointsWithShortNames() throws Exception {
+        checkpoint = new File(file.getParentFile(), "c");
+        server.failAt = 2;
+        try {
+            upload().upload();
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+        assertTrue(checkpoint.exists());
+        assertThat(upload().upload().getStatusLine().getStatusCode(), is(201));
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    public void shouldFollowRangeAcknowledgedByServer() throws Exception {
+        server.failAt = 3;
+        try {
+            upload().upload();
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+        // checkpoint lost, the server still knows the stored range
+        checkpoint.delete();
+        server.ranges.clear();
+
+        assertThat(upload().upload().getStatusLine().getStatusCode(), is(201));
+        assertThat(server.ranges.get(0), equalTo("bytes 0-999/4123"));
+        assertThat(server.ranges.get(1), equalTo("bytes 3000-3999/4123"));
+        assertTrue(Arrays.equals(server.received(), data));
+    }
+
+    @Test
+    public void shouldRestartIfFileChanged() throws Exception {
+        server.failAt = 2;
+        try {
+            upload().upload();
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        server = new StubServer();
+        api = mock(CloudAPI.class);
+        when(api.put(any(Request.class))).thenAnswer(server);
+
+        assertThat(upload().upload().getStatusLine().getStatusCode(), is(201));
+        assertThat(server.ranges.get(0), equalTo("bytes 0-999/4123"));
+        assertTrue(Arrays.equals(server.received(), data));
+    }
+
+    @Test
+    public void shouldReturnUnexpectedResponsesAndKeepCheckpoint() throws Exception {
+        server.errorAt = 1;
+        HttpResponse resp = upload().upload();
+        assertThat(resp.getStatusLine().getStatusCode(), is(500));
+        assertTrue(checkpoint.exists());
+    }
+
+    @Test
+    public void shouldFinishEmptyFiles() throws Exception {
+        new FileOutputStream(file).close();
+        data = new byte[0];
+        assertThat(upload().upload().getStatusLine().getStatusCode(), is(201));
+        assertThat(server.ranges, equalTo(Arrays.asList("bytes */0")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectRequestsWithParameters() throws Exception {
+        new ResumableUpload(api, Request.to("/uploads").with("foo", "bar"), file, checkpoint);
+    }
+
+    @Test
+    public void shouldParseAcknowledgedRange() throws Exception {
+        HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, 308, "Resume Incomplete");
+        assertThat(ResumableUpload.acknowledged(resp, 42), is(42L));
+        resp.setHeader("Range", "bytes=0-99");
+        assertThat(ResumableUpload.acknowledged(resp, 42), is(100L));
+        resp.setHeader("Range", "lines=0-99");
+        assertThat(ResumableUpload.acknowledged(resp, 42), is(-1L));
+    }
+
+    /** Stores complete chunks in order, reports what it has for chunks starting elsewhere */
+    static class StubServer implements Answer<HttpResponse> {
+        final ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        final List<String> ranges = new ArrayList<String>();
+        int requests, failAt = -1, errorAt = -1;
+
+        byte[] received() {
+            return stored.toByteArray();
+        }
+
+        @Override
+        public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+            final HttpPut put = ((Request) invocation.getArguments()[0]).buildRequest(HttpPut.class);
+            final String range = put.getFirstHeader("Content-Range").getValue();
+            ranges.add(range);
+            final int request = requests++;
+            if (request == failAt) throw new IOException("connection reset");
+            if (request == errorAt) return new BasicHttpResponse(HttpVersion.HTTP_1_1, 500, "Error");
+
+            final long total = Long.parseLong(range.substring(range.indexOf('/') + 1));
+            if (!range.startsWith("bytes */")) {
+                final long start = Long.parseLong(range.substring(6, range.indexOf('-')));
+                if (start == stored.size()) {
+                    put.getEntity().writeTo(stored);
+                }
+            }
+            if (stored.size() == total) {
+                return new BasicHttpResponse(HttpVersion.HTTP_1_1, 201, "Created");
+            }
+            HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, 308, "Resume Incomplete");
+            if (stored.size() > 0) resp.setHeader("Range", "bytes=0-" + (stored.size() - 1));
+            return resp;
+        }
+    }
+}
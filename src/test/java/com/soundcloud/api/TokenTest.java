@@ -35,6 +35,38 @@ public class TokenTest {
         assertFalse(invalid.valid());
     }
 
+    @Test
+    public void shouldMatchScopesSeparatedBySpaces() throws Exception {
+        Token t = new Token("1", "2", "* non-expiring signup");
+        assertTrue(t.scoped("*"));
+        assertTrue(t.scoped("non-expiring"));
+        assertTrue(t.scoped("signup"));
+        assertFalse(t.scoped("non"));
+        assertFalse(t.scoped("expiring"));
+        assertFalse(t.scoped("signup2"));
+        assertFalse(new Token("1", "2", "signup").scoped("sign"));
+    }
+
+    @Test
+    public void shouldReuseAuthHeaderUntilAccessTokenChanges() throws Exception {
+        Token t = new Token("1", "2");
+        assertSame(t.getAuthHeader(), t.getAuthHeader());
+        assertThat(t.getAuthHeader().getValue(), equalTo("OAuth 1"));
+
+        t.access = "12";
+        assertThat(t.getAuthHeader().getValue(), equalTo("OAuth 12"));
+        t.access = "3";
+        assertThat(t.getAuthHeader().getValue(), equalTo("OAuth 3"));
+    }
+
+    @Test
+    public void shouldReturnInvalidatedAuthHeaderAfterInvalidation() throws Exception {
+        Token t = new Token("1", "2");
+        t.getAuthHeader();
+        t.invalidate();
+        assertSame(t.getAuthHeader(), ApiWrapper.INVALIDATED_AUTH_HEADER);
+    }
+
     @Test
     public void shouldDefaultScope() throws Exception {
         Token t = new Token(null, null);
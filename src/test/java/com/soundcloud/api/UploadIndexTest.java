@@ -0,0 +1,163 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+public class UploadIndexTest {
+    File file;
+
+    @Before
+    public void setup() throws Exception {
+        file = File.createTempFile("upload", "index");
+        file.delete();
+    }
+
+    @After
+    public void teardown() {
+        file.delete();
+    }
+
+    private static byte[] hash(int i) {
+        byte[] hash = new byte[UploadIndex.HASH_LENGTH];
+        hash[0] = (byte) (i >> 8);
+        hash[1] = (byte) i;
+        return hash;
+    }
+
+    @Test
+    public void shouldStoreAndPersistEntries() throws Exception {
+        UploadIndex index = new UploadIndex(file, 100);
+        assertThat(index.get(hash(1)), nullValue());
+        index.put(hash(1), "/tracks/1");
+        index.put(hash(2), "/tracks/2");
+        index.put(hash(1), "/tracks/3");
+        assertTrue(index.remove(hash(2)));
+        assertFalse(index.remove(hash(2)));
+        index.close();
+
+        UploadIndex reloaded = new UploadIndex(file, 100);
+        assertThat(reloaded.size(), is(1));
+        assertThat(reloaded.get(hash(1)), equalTo("/tracks/3"));
+        assertThat(reloaded.get(hash(2)), nullValue());
+    }
+
+    @Test
+    public void shouldDropLeastRecentlyUsedEntries() throws Exception {
+        UploadIndex index = new UploadIndex(file, 2);
+        index.put(hash(1), "/tracks/1");
+        index.put(hash(2), "/tracks/2");
+        index.get(hash(1));
+        index.put(hash(3), "/tracks/3");
+
+        assertThat(index.size(), is(2));
+        assertThat(index.get(hash(2)), nullValue());
+        assertThat(index.get(hash(1)), equalTo("/tracks/1"));
+        index.close();
+        assertThat(new UploadIndex(file, 2).size(), is(2));
+    }
+
+    @Test
+    public void shouldCompactLog() throws Exception {
+        UploadIndex index = new UploadIndex(file, 10);
+        for (int i = 0; i < 1000; i++) index.put(hash(i), "/tracks/" + i);
+        index.close();
+
+        assertTrue(lines(file) <= 2 * 16);
+        UploadIndex reloaded = new UploadIndex(file, 10);
+        assertThat(reloaded.size(), is(10));
+        assertThat(reloaded.get(hash(999)), equalTo("/tracks/999"));
+    }
+
+    @Test
+    public void shouldIgnorePartialRecords() throws Exception {
+        UploadIndex index = new UploadIndex(file, 10);
+        index.put(hash(1), "/tracks/1");
+        index.close();
+        append("0102\n" + UploadIndex.hex(hash(2)) + " /tra");
+
+        UploadIndex reloaded = new UploadIndex(file, 10);
+        assertThat(reloaded.size(), is(1));
+        assertThat(reloaded.get(hash(1)), equalTo("/tracks/1"));
+        assertThat(reloaded.get(hash(2)), nullValue());
+
+        // must not be appended to the partial record
+        reloaded.put(hash(3), "/tracks/3");
+        reloaded.close();
+        reloaded = new UploadIndex(file, 10);
+        assertThat(reloaded.size(), is(2));
+        assertThat(reloaded.get(hash(2)), nullValue());
+        assertThat(reloaded.get(hash(3)), equalTo("/tracks/3"));
+    }
+
+    @Test
+    public void shouldCompactIndexWithShortName() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "index-" + System.nanoTime());
+        assertTrue(dir.mkdir());
+        File shortName = new File(dir, "i");
+        try {
+            UploadIndex index = new UploadIndex(shortName, 10);
+            for (int i = 0; i < 100; i++) index.put(hash(i), "/tracks/" + i);
+            index.close();
+            assertThat(new UploadIndex(shortName, 10).size(), is(10));
+            assertThat(dir.list().length, is(1));
+        } finally {
+            shortName.delete();
+            dir.delete();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectHashesOfWrongLength() throws Exception {
+        new UploadIndex(file, 10).get(new byte[] { 1, 2, 3 });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectResourcesWithNewlines() throws Exception {
+        new UploadIndex(file, 10).put(hash(1), "/tracks/1\n/tracks/2");
+    }
+
+    @Test
+    public void shouldDigestFiles() throws Exception {
+        byte[] data = new byte[ApiWrapper.BUFFER_SIZE * 2 + 3];
+        new Random().nextBytes(data);
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(data);
+        fos.close();
+        assertTrue(Arrays.equals(UploadIndex.digest(file), MessageDigest.getInstance("SHA-256").digest(data)));
+    }
+
+    @Test
+    public void shouldFormatHex() throws Exception {
+        assertThat(UploadIndex.hex(new byte[] { 0, 15, (byte) 0xff }), equalTo("000fff"));
+    }
+
+    private void append(String s) throws Exception {
+        FileOutputStream fos = new FileOutputStream(file, true);
+        fos.write(s.getBytes("UTF-8"));
+        fos.close();
+    }
+
+    private static int lines(File f) throws Exception {
+        BufferedReader reader = new BufferedReader(new FileReader(f));
+        int n = 0;
+        while (reader.readLine() != null) n++;
+        reader.close();
+        return n;
+    }
+}
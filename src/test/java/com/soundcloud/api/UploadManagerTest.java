@@ -0,0 +1,212 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UploadManagerTest {
+    UploadManager manager;
+
+    @After
+    public void teardown() {
+        if (manager != null) manager.shutdownNow();
+    }
+
+    private static Request upload(String title) {
+        return Request.to(Endpoints.TRACKS)
+                .add(Params.Track.TITLE, title)
+                .withFile(Params.Track.ASSET_DATA, new byte[10000]);
+    }
+
+    private CloudAPI api(final Server server) {
+        // not a mock, mockito serializes concurrent invocations
+        return new ApiWrapper("id", "secret", null, null, Env.LIVE) {
+            @Override public HttpResponse post(Request request) throws IOException {
+                try {
+                    return server.respond(request);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    @Test(timeout = 5000)
+    public void shouldBoundConcurrentUploads() throws Exception {
+        final AtomicInteger running = new AtomicInteger(), max = new AtomicInteger();
+        manager = new UploadManager(api(new Server() {
+            @Override HttpResponse respond(Request request) throws Exception {
+                int now = running.incrementAndGet();
+                synchronized (max) { if (now > max.get()) max.set(now); }
+                Thread.sleep(50);
+                running.decrementAndGet();
+                return super.respond(request);
+            }
+        }), 2);
+
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < 6; i++) requests.add(upload("track " + i));
+        for (Future<HttpResponse> f : manager.submitAll(requests)) {
+            assertThat(f.get().getStatusLine().getStatusCode(), is(201));
+        }
+        assertThat(max.get(), is(2));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldRetryFailedUploads() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        manager = new UploadManager(api(new Server() {
+            @Override HttpResponse respond(Request request) throws Exception {
+                switch (attempts.incrementAndGet()) {
+                    case 1: throw new IOException("connection reset");
+                    case 2: return new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Unavailable");
+                    default: return super.respond(request);
+                }
+            }
+        }), 1, 3, 1);
+
+        assertThat(manager.submit(upload("track")).get().getStatusLine().getStatusCode(), is(201));
+        assertThat(attempts.get(), is(3));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldGiveUpAfterRetries() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        manager = new UploadManager(api(new Server() {
+            @Override HttpResponse respond(Request request) throws Exception {
+                attempts.incrementAndGet();
+                throw new IOException("connection reset");
+            }
+        }), 1, 2, 1);
+
+        try {
+            manager.submit(upload("track")).get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+        assertThat(attempts.get(), is(3));
+        assertThat(manager.getTotalBytes(), is(0L));
+        assertThat(manager.getTransferredBytes(), is(0L));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldNotRetryStreamedUploads() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        manager = new UploadManager(api(new Server() {
+            @Override HttpResponse respond(Request request) throws Exception {
+                attempts.incrementAndGet();
+                throw new IOException("connection reset");
+            }
+        }), 1, 3, 1);
+
+        try {
+            manager.submit(Request.to(Endpoints.TRACKS)
+                    .withFile(Params.Track.ASSET_DATA, new ByteArrayInputStream(new byte[100]), -1)).get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+        assertThat(attempts.get(), is(1));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldNotRetryClientErrors() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        manager = new UploadManager(api(new Server() {
+            @Override HttpResponse respond(Request request) throws Exception {
+                attempts.incrementAndGet();
+                return new BasicHttpResponse(HttpVersion.HTTP_1_1, 422, "Unprocessable Entity");
+            }
+        }), 1, 3, 1);
+
+        assertThat(manager.submit(upload("track")).get().getStatusLine().getStatusCode(), is(422));
+        assertThat(attempts.get(), is(1));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldNotRetryCancelledUploads() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        manager = new UploadManager(api(new Server() {
+            @Override HttpResponse respond(Request request) throws Exception {
+                attempts.incrementAndGet();
+                return super.respond(request);
+            }
+        }), 1, 3, 1);
+
+        Future<HttpResponse> f = manager.submit(upload("track").setProgressListener(new Request.TransferProgressListener() {
+            @Override public void transferred(long amount) throws IOException {
+                throw new IOException("cancelled");
+            }
+        }));
+        try {
+            f.get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), equalTo("cancelled"));
+        }
+        assertThat(attempts.get(), is(1));
+    }
+
+    @Test(timeout = 5000)
+    public void shouldTrackAggregateProgress() throws Exception {
+        final List<Long> progress = new ArrayList<Long>();
+        final CountDownLatch submitted = new CountDownLatch(1);
+        manager = new UploadManager(api(new Server() {
+            @Override HttpResponse respond(Request request) throws Exception {
+                submitted.await();
+                return super.respond(request);
+            }
+        }), 2);
+        assertThat(manager.getEta(), is(-1L));
+
+        Future<HttpResponse> a = manager.submit(upload("first").setProgressListener(new Request.TransferProgressListener() {
+            @Override public void transferred(long amount) {
+                progress.add(amount);
+            }
+        }));
+        Future<HttpResponse> b = manager.submit(upload("second"));
+        // the size of the parts, known without building the requests
+        long total = manager.getTotalBytes();
+        assertThat(total, is(20000L));
+        submitted.countDown();
+        a.get();
+        b.get();
+
+        assertThat(manager.getPending(), is(0));
+        assertThat(manager.getTransferredBytes(), is(total));
+        assertTrue(manager.getBytesPerSecond() > 0);
+        assertThat(manager.getEta(), is(0L));
+        assertTrue(progress.get(progress.size() - 1) > 10000);
+    }
+
+    /** Sends the entity, answers with 201 */
+    static class Server {
+        HttpResponse respond(Request request) throws Exception {
+            request.buildRequest(HttpPost.class).getEntity().writeTo(new ByteArrayOutputStream());
+            return new BasicHttpResponse(HttpVersion.HTTP_1_1, 201, "Created");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.IllegalFormatException;
+
+public class UriTemplateTest {
+    @Test
+    public void shouldExpandLikeStringFormat() throws Exception {
+        String[] templates = {
+                Endpoints.TRACK_DETAILS, Endpoints.USER_FAVORITES, "/a/%s/b/%d", "/%d", "%d/", "/100%%/%d"
+        };
+        Object[][] args = {
+                { 1L }, { 42 }, { "foo", 7 }, { (short) 3 }, { BigInteger.TEN }, { 5 }
+        };
+        for (int i = 0; i < templates.length; i++) {
+            assertThat(UriTemplate.compile(templates[i]).expand(args[i]),
+                    equalTo(String.format(templates[i], args[i])));
+        }
+    }
+
+    @Test
+    public void shouldExpandIds() throws Exception {
+        assertThat(Endpoints.Templates.TRACK_COMMENTS.expand(1234), equalTo("/tracks/1234/comments"));
+        assertThat(Endpoints.Templates.MY_FOLLOWING.expand(-1), equalTo("/me/followings/-1"));
+        assertThat(Endpoints.Templates.USER_DETAILS.expand(Long.MAX_VALUE),
+                equalTo("/users/" + Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldExpandNullLikeStringFormat() throws Exception {
+        assertThat(UriTemplate.compile("/%s/%d").expand(null, null), equalTo(String.format("/%s/%d", null, null)));
+    }
+
+    @Test
+    public void shouldCountArguments() throws Exception {
+        assertThat(UriTemplate.compile("/tracks").getArgumentCount(), is(0));
+        assertThat(UriTemplate.compile("/a/%s/b/%d").getArgumentCount(), is(2));
+        assertThat(UriTemplate.compile("/a/%%/b").getArgumentCount(), is(0));
+    }
+
+    @Test(expected = IllegalFormatException.class)
+    public void shouldRejectNonIntegerArgumentsForDecimals() throws Exception {
+        UriTemplate.compile(Endpoints.TRACK_DETAILS).expand("foo");
+    }
+
+    @Test(expected = IllegalFormatException.class)
+    public void shouldRejectMissingArguments() throws Exception {
+        UriTemplate.compile("/a/%s/b/%d").expand("foo");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectIdExpansionOfTemplatesWithoutArgument() throws Exception {
+        UriTemplate.compile(Endpoints.TRACKS).expand(12);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnsupportedConversions() throws Exception {
+        UriTemplate.compile("/tracks/%05d");
+    }
+
+    @Test
+    public void shouldNotCacheUnsupportedTemplates() throws Exception {
+        assertThat(UriTemplate.cached("/tracks/%x"), nullValue());
+        assertThat(UriTemplate.cached("/tracks/%x"), nullValue());
+        assertThat(Request.to("/tracks/%x", 255).toUrl(), equalTo("/tracks/ff"));
+    }
+
+    @Test
+    public void shouldBuildRequestsFromTemplates() throws Exception {
+        assertThat(Request.to(Endpoints.Templates.TRACK_DETAILS, 1).toUrl(), equalTo("/tracks/1"));
+        assertThat(Request.to(Endpoints.TRACK_DETAILS, 1).toUrl(), equalTo("/tracks/1"));
+        assertThat(Request.to(UriTemplate.compile("/a/%s?b=%d"), "x", 2).toUrl(), equalTo("/a/x?b=2"));
+    }
+}
@@ -0,0 +1,85 @@
+package com.soundcloud.api.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.soundcloud.api.JsonReader;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+public class ModelTest {
+    static final String TRACK = "{\"id\": 1234, \"title\": \"Flute \\u00f8\", \"user_id\": 5," +
+            "\"user\": {\"id\": 5, \"username\": \"che\", \"avatar_url\": null, \"unknown\": [1, 2]}," +
+            "\"bpm\": 120.5, \"release_year\": null, \"streamable\": true, \"tag_list\": \"flute jazz\"," +
+            "\"duration\": 183000, \"attachments\": {\"skip\": \"me\"}}";
+
+    @Test
+    public void shouldBindTrack() throws Exception {
+        Track t = Model.read(reader(TRACK), Track.FACTORY);
+        assertThat(t.id, is(1234L));
+        assertThat(t.title, equalTo("Flute \u00f8"));
+        assertThat(t.userId, is(5L));
+        assertThat(t.user.username, equalTo("che"));
+        assertThat(t.user.avatarUrl, nullValue());
+        assertThat(t.bpm, is(120.5d));
+        assertThat(t.releaseYear, is(0));
+        assertThat(t.streamable, is(true));
+        assertThat(t.tagList, equalTo("flute jazz"));
+        assertThat(t.duration, is(183000L));
+    }
+
+    @Test
+    public void shouldBindListOfTracks() throws Exception {
+        List<Track> tracks = Model.readList(reader("[" + TRACK + ", null, " + TRACK + "]"), Track.FACTORY);
+        assertThat(tracks.size(), is(3));
+        assertThat(tracks.get(1), nullValue());
+        assertThat(tracks.get(2).title, equalTo("Flute \u00f8"));
+    }
+
+    @Test
+    public void shouldBindComment() throws Exception {
+        Comment c = Model.read(reader("{\"id\": 1, \"body\": \"nice\", \"timestamp\": 3000, \"track_id\": 1234}"),
+                Comment.FACTORY);
+        assertThat(c.body, equalTo("nice"));
+        assertThat(c.timestamp, is(3000L));
+        assertThat(c.trackId, is(1234L));
+    }
+
+    @Test
+    public void shouldBindActivities() throws Exception {
+        Activities a = Model.read(reader("{\"collection\": [" +
+                "{\"type\": \"track\", \"tags\": \"affiliated\", \"origin\": " + TRACK + "}," +
+                "{\"type\": \"comment\", \"origin\": {\"id\": 99, \"body\": \"hi\", \"user_id\": 5}}," +
+                "{\"origin\": {\"id\": 98, \"body\": \"later\", \"user_id\": 6}, \"type\": \"comment\"}" +
+                "], \"next_href\": \"https://api.soundcloud.com/me/activities?cursor=1\"}"),
+                Activities.FACTORY);
+
+        assertThat(a.nextHref, equalTo("https://api.soundcloud.com/me/activities?cursor=1"));
+        assertThat(a.collection.size(), is(3));
+        assertThat(a.collection.get(0).getTrack().id, is(1234L));
+        assertThat(a.collection.get(0).tags, equalTo("affiliated"));
+        assertThat(a.collection.get(1).getComment().body, equalTo("hi"));
+
+        Comment late = a.collection.get(2).getComment();
+        assertThat(late.id, is(98L));
+        assertThat(late.userId, is(6L));
+        assertThat(late.body, equalTo("later"));
+    }
+
+    @Test
+    public void shouldBindTrackOriginWhenTypeComesLast() throws Exception {
+        Activity a = Model.read(reader("{\"origin\": " + TRACK + ", \"type\": \"track\"}"), Activity.FACTORY);
+        assertTrue(a.origin instanceof Track);
+        assertThat(a.getTrack().title, equalTo("Flute \u00f8"));
+        assertThat(a.getComment(), nullValue());
+    }
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(new StringReader(json));
+    }
+}